@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.content.res.AssetManager;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading of the side files shipped with models as assets, such as labels and box priors, and
+ * writing of the caches derived from them.
+ */
+final class AssetFiles {
+  /** Prefix of the URIs naming files in the assets. */
+  static final String ASSET_PREFIX = "file:///android_asset/";
+
+  private AssetFiles() {}
+
+  /** Opens an asset given either as a path or as a file:///android_asset/ URI. */
+  static InputStream openAsset(final AssetManager assetManager, final String filename)
+      throws IOException {
+    return assetManager.open(
+        filename.startsWith(ASSET_PREFIX) ? filename.substring(ASSET_PREFIX.length()) : filename);
+  }
+
+  /** Returns the lines of an asset given as for {@link #openAsset}. */
+  static List<String> readLines(final AssetManager assetManager, final String filename)
+      throws IOException {
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader br =
+        new BufferedReader(new InputStreamReader(openAsset(assetManager, filename)));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      br.close();
+    }
+    return lines;
+  }
+
+  /** Reads {@code is} to the end and closes it. */
+  static byte[] readBytes(final InputStream is) throws IOException {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] chunk = new byte[8192];
+      int read;
+      while ((read = is.read(chunk)) != -1) {
+        out.write(chunk, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Replaces {@code file} with {@code contents}. The bytes are written next to it and renamed over
+   * it, so that a torn write is never read back.
+   */
+  static void writeAtomically(final File file, final byte[] contents) throws IOException {
+    final File tempFile = new File(file.getPath() + ".tmp");
+    final FileOutputStream out = new FileOutputStream(tempFile);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Could not rename " + tempFile + " to " + file);
+    }
+  }
+}
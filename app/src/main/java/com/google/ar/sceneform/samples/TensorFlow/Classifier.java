@@ -18,6 +18,9 @@ package com.google.ar.sceneform.samples.TensorFlow;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -100,8 +103,68 @@ public interface Classifier {
 
   List<Recognition> recognizeImage(Bitmap bitmap);
 
+  /**
+   * Runs recognition on a row-major ARGB_8888 pixel buffer of any size. The pixels are resized to
+   * the model input size as part of preprocessing.
+   */
+  default List<Recognition> recognizeImage(final int[] pixels, final int width, final int height) {
+    return new ArrayList<Recognition>(detect(pixels, width, height).asRecognitions());
+  }
+
+  /**
+   * Like {@link #recognizeImage(int[], int, int)}, but returns the results best first in a buffer
+   * owned by the classifier, without allocating. The buffer is overwritten by the next call.
+   */
+  DetectionBuffer detect(int[] pixels, int width, int height);
+
+  /**
+   * Like {@link #detect(int[], int, int)}, but reads the crop of a YUV frame, rotated upright, and
+   * converts only the pixels sampled for the model input. Boxes are in the upright crop's
+   * coordinates, scaled to the model input size.
+   */
+  DetectionBuffer detect(YuvFrame frame);
+
+  /**
+   * Runs recognition on several images, returning one result list per image in input order.
+   * Implementations able to feed all images as a single [N, H, W, 3] batch override this.
+   */
+  default List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    final List<List<Recognition>> results = new ArrayList<List<Recognition>>(bitmaps.size());
+    for (final Bitmap bitmap : bitmaps) {
+      results.add(recognizeImage(bitmap));
+    }
+    return results;
+  }
+
   void enableStatLogging(final boolean debug);
 
+  /**
+   * Splits preprocessing into row stripes run on a shared fork-join pool when the model input has
+   * at least {@code minPixels} pixels. Smaller inputs, and all inputs by default, stay serial.
+   */
+  void enableParallelPreprocessing(final int minPixels);
+
+  /**
+   * Drops candidates scoring below {@code minimumConfidence} while decoding, before any
+   * {@link Recognition} is created for them. Defaults to 0, which keeps every candidate the
+   * model itself would report.
+   */
+  void setMinimumConfidence(final float minimumConfidence);
+
+  /**
+   * Returns the labels indexed by the {@link DetectionBuffer#getClassId class ids} this classifier
+   * reports, or {@link LabelTable#EMPTY} if it does not classify.
+   */
+  default LabelTable getLabels() {
+    return LabelTable.EMPTY;
+  }
+
+  /**
+   * Returns the side of the square model input, which is also the coordinate range of the
+   * detected locations.
+   */
+  int getInputSize();
+
   String getStatString();
 
   void close();
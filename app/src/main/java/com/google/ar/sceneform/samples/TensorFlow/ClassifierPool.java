@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * A fixed set of independent classifier instances, each with its own inference session and
+ * buffers, leased to one thread at a time so that several frames can be inferred concurrently.
+ * <p>
+ * <p>A {@link Lease} is meant for try-with-resources; results returned by the leased classifier
+ * live in its buffers and must be copied out before the lease is closed. Leases are allocated
+ * once per instance, so leasing does not allocate. A pool being replaced is {@link #retire()
+ * retired}: it stops handing out leases and closes its instances once the last one is returned.
+ * <p>
+ * <p>The pool tracks how long threads waited for an instance and how busy the instances were,
+ * measured since construction or the last {@link #resetStats()}.
+ */
+public final class ClassifierPool {
+  /** Exclusive use of one pooled classifier, handed back by {@link #close()}. */
+  public final class Lease implements AutoCloseable {
+    private final Classifier classifier;
+    private long acquiredTimeNs;
+    private boolean leased;
+
+    private Lease(final Classifier classifier) {
+      this.classifier = classifier;
+    }
+
+    public Classifier getClassifier() {
+      if (!leased) {
+        throw new IllegalStateException("Lease is closed");
+      }
+      return classifier;
+    }
+
+    @Override
+    public void close() {
+      if (!leased) {
+        return;
+      }
+      leased = false;
+      release(this);
+    }
+  }
+
+  private final Lease[] leases;
+  // Guarded by this.
+  private final ArrayDeque<Lease> idle;
+  private boolean retired;
+
+  private long statsStartTimeNs;
+  private long leaseCount;
+  private long totalWaitNs;
+  private long maxWaitNs;
+  private long busyNs;
+
+  /** Pools the given instances, which must not be used directly any more. */
+  public ClassifierPool(final List<Classifier> classifiers) {
+    if (classifiers.isEmpty()) {
+      throw new IllegalArgumentException("Pool needs at least one classifier");
+    }
+    leases = new Lease[classifiers.size()];
+    idle = new ArrayDeque<Lease>(leases.length);
+    for (int i = 0; i < leases.length; ++i) {
+      leases[i] = new Lease(classifiers.get(i));
+      idle.add(leases[i]);
+    }
+    statsStartTimeNs = nanoTime();
+  }
+
+  /**
+   * Blocks until an instance is free and leases it to the calling thread.
+   *
+   * @return The lease, or null if the pool has been retired.
+   */
+  public synchronized Lease acquire() throws InterruptedException {
+    final long startTimeNs = nanoTime();
+    while (idle.isEmpty() && !retired) {
+      wait();
+    }
+    if (retired) {
+      return null;
+    }
+    final Lease lease = idle.poll();
+    final long acquiredTimeNs = nanoTime();
+    final long waitNs = acquiredTimeNs - startTimeNs;
+    ++leaseCount;
+    totalWaitNs += waitNs;
+    maxWaitNs = Math.max(maxWaitNs, waitNs);
+    lease.acquiredTimeNs = acquiredTimeNs;
+    lease.leased = true;
+    return lease;
+  }
+
+  private synchronized void release(final Lease lease) {
+    // Leases taken before the last reset only count from the reset on.
+    busyNs += nanoTime() - Math.max(lease.acquiredTimeNs, statsStartTimeNs);
+    idle.add(lease);
+    notifyAll();
+  }
+
+  /**
+   * Stops handing out leases, waking threads blocked in {@link #acquire()} with null, then waits
+   * for the leases still out to be returned and closes every instance.
+   */
+  public void retire() throws InterruptedException {
+    synchronized (this) {
+      retired = true;
+      notifyAll();
+      while (idle.size() < leases.length) {
+        wait();
+      }
+    }
+    close();
+  }
+
+  /** Returns the labels shared by the pooled instances. */
+  public LabelTable getLabels() {
+    return leases[0].classifier.getLabels();
+  }
+
+  public int getSize() {
+    return leases.length;
+  }
+
+  /** Returns how many instances are currently leased. */
+  public synchronized int getLeasedCount() {
+    return leases.length - idle.size();
+  }
+
+  public synchronized long getLeaseCount() {
+    return leaseCount;
+  }
+
+  public synchronized float getAverageWaitMs() {
+    return leaseCount > 0 ? totalWaitNs / (leaseCount * 1e6f) : 0.0f;
+  }
+
+  public synchronized float getMaxWaitMs() {
+    return maxWaitNs / 1e6f;
+  }
+
+  /**
+   * Returns the fraction of instance time spent leased, counting finished leases only. 1 means
+   * every instance was busy the whole time, so a larger pool might help.
+   */
+  public synchronized float getUtilization() {
+    final long elapsedNs = nanoTime() - statsStartTimeNs;
+    return elapsedNs > 0 ? (float) busyNs / ((float) elapsedNs * leases.length) : 0.0f;
+  }
+
+  public synchronized void resetStats() {
+    statsStartTimeNs = nanoTime();
+    leaseCount = 0;
+    totalWaitNs = 0;
+    maxWaitNs = 0;
+    busyNs = 0;
+  }
+
+  public String getStatString() {
+    return String.format(
+        "pool=%d leased=%d leases=%d avgWait=%.1fms maxWait=%.1fms utilization=%.0f%%",
+        getSize(),
+        getLeasedCount(),
+        getLeaseCount(),
+        getAverageWaitMs(),
+        getMaxWaitMs(),
+        getUtilization() * 100.0f);
+  }
+
+  /** Closes every instance. Leases still out must not be used afterwards. */
+  public void close() {
+    for (final Lease lease : leases) {
+      lease.classifier.close();
+    }
+  }
+
+  private static long nanoTime() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+}
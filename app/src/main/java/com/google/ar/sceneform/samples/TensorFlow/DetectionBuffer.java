@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.graphics.RectF;
+
+import com.google.ar.sceneform.samples.TensorFlow.Classifier.Recognition;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A fixed-capacity set of detections stored as parallel primitive arrays, which a detector fills
+ * in place on every frame instead of allocating a {@link Recognition} per result.
+ * <p>
+ * <p>Detections are kept in the order they were added, which detectors make best first. Boxes are
+ * in model input coordinates; detections without a location, such as whole-image
+ * classifications, have NaN boxes. A buffer owned by a detector is overwritten by its next call,
+ * so readers must copy out anything they keep. Instances are not thread-safe.
+ */
+public final class DetectionBuffer {
+  private final float[] boxes;
+  private final float[] scores;
+  private final int[] classIds;
+  private final int[] ids;
+  private final String[] titles;
+  private int size;
+
+  private final List<Recognition> recognitions =
+      new AbstractList<Recognition>() {
+        @Override
+        public Recognition get(final int i) {
+          if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+          }
+          final RectF location = hasLocation(i) ? getLocation(i, new RectF()) : null;
+          return new Recognition("" + ids[i], titles[i], scores[i], location);
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+
+  public DetectionBuffer(final int capacity) {
+    boxes = new float[capacity * 4];
+    scores = new float[capacity];
+    classIds = new int[capacity];
+    ids = new int[capacity];
+    titles = new String[capacity];
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Appends a detection.
+   *
+   * @param id Identifies the detection within the model output, e.g. its output index.
+   * @param title Display name of the class, or null.
+   * @return False if the buffer is full and the detection was dropped.
+   */
+  public boolean add(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float score,
+      final int classId,
+      final String title,
+      final int id) {
+    if (size == scores.length) {
+      return false;
+    }
+    boxes[4 * size] = left;
+    boxes[4 * size + 1] = top;
+    boxes[4 * size + 2] = right;
+    boxes[4 * size + 3] = bottom;
+    scores[size] = score;
+    classIds[size] = classId;
+    titles[size] = title;
+    ids[size] = id;
+    ++size;
+    return true;
+  }
+
+  /** Appends a detection without a location. */
+  public boolean add(final float score, final int classId, final String title, final int id) {
+    return add(Float.NaN, Float.NaN, Float.NaN, Float.NaN, score, classId, title, id);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return scores.length;
+  }
+
+  public float getScore(final int i) {
+    return scores[i];
+  }
+
+  public int getClassId(final int i) {
+    return classIds[i];
+  }
+
+  public int getId(final int i) {
+    return ids[i];
+  }
+
+  public String getTitle(final int i) {
+    return titles[i];
+  }
+
+  public boolean hasLocation(final int i) {
+    return !Float.isNaN(boxes[4 * i]);
+  }
+
+  public float getLeft(final int i) {
+    return boxes[4 * i];
+  }
+
+  public float getTop(final int i) {
+    return boxes[4 * i + 1];
+  }
+
+  public float getRight(final int i) {
+    return boxes[4 * i + 2];
+  }
+
+  public float getBottom(final int i) {
+    return boxes[4 * i + 3];
+  }
+
+  /** Writes the box of detection {@code i} to {@code out} and returns it. */
+  public RectF getLocation(final int i, final RectF out) {
+    out.set(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3]);
+    return out;
+  }
+
+  /**
+   * Returns a live list view creating a {@link Recognition} for each element as it is read. The
+   * view follows the buffer's contents, so copy it to keep results past the next fill.
+   */
+  public List<Recognition> asRecognitions() {
+    return recognitions;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable table of class labels, where a label's id is its line in the labels file and so
+ * matches the class index of the model output. Each label is also kept in a normalized form,
+ * trimmed and lower case, so that callers can resolve the names they care about to ids once with
+ * {@link #idOf} and then match detections by {@link DetectionBuffer#getClassId class id} instead
+ * of comparing strings per frame.
+ */
+public final class LabelTable {
+  /** Returned by {@link #idOf} for names not in the table. */
+  public static final int NO_ID = -1;
+
+  /** A table without labels, for detectors that do not classify. */
+  public static final LabelTable EMPTY = new LabelTable(new String[0], new String[0]);
+
+  private final String[] labels;
+  private final String[] normalized;
+  private final Map<String, Integer> ids;
+
+  private LabelTable(final String[] labels, final String[] normalized) {
+    this.labels = labels;
+    this.normalized = normalized;
+    ids = new HashMap<String, Integer>(labels.length * 2);
+    // The first of duplicate labels wins.
+    for (int i = normalized.length - 1; i >= 0; --i) {
+      ids.put(normalized[i], i);
+    }
+  }
+
+  /** Creates a table with one label per element of {@code lines}, in order. */
+  public static LabelTable of(final List<String> lines) {
+    final String[] labels = lines.toArray(new String[lines.size()]);
+    final String[] normalized = new String[labels.length];
+    for (int i = 0; i < labels.length; ++i) {
+      normalized[i] = normalize(labels[i]);
+    }
+    return new LabelTable(labels, normalized);
+  }
+
+  /**
+   * Loads a labels file with one label per line.
+   *
+   * @param filename The labels file, either an asset path or a file:///android_asset/ URI.
+   */
+  public static LabelTable load(final AssetManager assetManager, final String filename)
+      throws IOException {
+    return of(AssetFiles.readLines(assetManager, filename));
+  }
+
+  /** Returns the trimmed, lower case form used to match labels. */
+  public static String normalize(final String label) {
+    return label.trim().toLowerCase(Locale.US);
+  }
+
+  public int size() {
+    return labels.length;
+  }
+
+  /** Returns the label with the given id as it appears in the labels file. */
+  public String get(final int id) {
+    return labels[id];
+  }
+
+  /** Returns the normalized form of the label with the given id. */
+  public String getNormalized(final int id) {
+    return normalized[id];
+  }
+
+  /**
+   * Returns the id of the first label matching {@code name} once both are normalized, or
+   * {@link #NO_ID}.
+   */
+  public int idOf(final String name) {
+    final Integer id = ids.get(normalize(name));
+    return id != null ? id : NO_ID;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads classifiers on a background thread and keeps them until their owner removes them, so that
+ * parsing the graph and TensorFlow's first-run initialization happen before the first frame
+ * arrives, and callers asking for a model that is already loading share that load.
+ * <p>
+ * <p>Each model is identified by a key. Whoever closes a model must {@link #remove} its key first,
+ * so that no later caller is handed the closed instance; owners that may overlap in time, such as
+ * an activity and the one recreating it, should use keys of their own. The registry therefore
+ * shares loads within an owner, not across owners: an owner that outlives itself, e.g. across a
+ * configuration change, has to hand its models over. After loading, a model is run a few times on
+ * a synthetic frame, which makes the session allocate its buffers and the preprocessor size its
+ * scratch space. Callers get a {@link CompletableFuture} to block on where they first need the
+ * model, or to chain work onto; a failed load is forgotten, so that loading the same key again
+ * retries it.
+ */
+public final class ModelRegistry {
+  private static final Logger LOGGER = new Logger();
+
+  private static final ModelRegistry INSTANCE = new ModelRegistry();
+
+  /** Creates a classifier. Called on the loader thread. */
+  public interface ModelLoader {
+    Classifier load() throws IOException;
+  }
+
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "ModelLoader");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final Map<String, CompletableFuture<Classifier>> models =
+      new HashMap<String, CompletableFuture<Classifier>>();
+
+  private ModelRegistry() {}
+
+  public static ModelRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the model registered under {@code key}, starting to load it with {@code loader} if it
+   * is neither loaded nor loading.
+   *
+   * @param warmUpRuns How many times to run the new model before it is handed out.
+   * @param warmUpWidth Width of the synthetic warm-up frame; ideally that of the real frames.
+   * @param warmUpHeight Height of the synthetic warm-up frame.
+   */
+  public synchronized CompletableFuture<Classifier> load(
+      final String key,
+      final ModelLoader loader,
+      final int warmUpRuns,
+      final int warmUpWidth,
+      final int warmUpHeight) {
+    CompletableFuture<Classifier> model = models.get(key);
+    if (model == null) {
+      final CompletableFuture<Classifier> newModel = new CompletableFuture<Classifier>();
+      executor.execute(
+          () -> {
+            try {
+              newModel.complete(
+                  loadAndWarmUp(key, loader, warmUpRuns, warmUpWidth, warmUpHeight));
+            } catch (final Exception e) {
+              remove(key, newModel);
+              newModel.completeExceptionally(e);
+            }
+          });
+      models.put(key, newModel);
+      model = newModel;
+    }
+    return model;
+  }
+
+  /**
+   * Forgets the model registered under {@code key}, e.g. because its owner is about to close it.
+   * The next {@link #load} of that key loads a new instance.
+   */
+  public synchronized void remove(final String key) {
+    models.remove(key);
+  }
+
+  private synchronized void remove(final String key, final CompletableFuture<Classifier> model) {
+    if (models.get(key) == model) {
+      models.remove(key);
+    }
+  }
+
+  private static Classifier loadAndWarmUp(
+      final String key,
+      final ModelLoader loader,
+      final int warmUpRuns,
+      final int warmUpWidth,
+      final int warmUpHeight)
+      throws IOException {
+    Trace.beginSection("loadModel");
+    final long startTime = SystemClock.uptimeMillis();
+    final Classifier classifier = loader.load();
+    final long loadTime = SystemClock.uptimeMillis() - startTime;
+    Trace.endSection();
+
+    Trace.beginSection("warmUpModel");
+    final long warmUpStartTime = SystemClock.uptimeMillis();
+    if (warmUpRuns > 0) {
+      final int[] pixels = syntheticFrame(warmUpWidth, warmUpHeight);
+      for (int i = 0; i < warmUpRuns; ++i) {
+        classifier.detect(pixels, warmUpWidth, warmUpHeight);
+      }
+    }
+    final long warmUpTime = SystemClock.uptimeMillis() - warmUpStartTime;
+    Trace.endSection();
+
+    LOGGER.i(
+        "Loaded model %s in %dms, %d warm-up runs took %dms",
+        key, loadTime, warmUpRuns, warmUpTime);
+    return classifier;
+  }
+
+  /** Returns an opaque ARGB frame with a smooth color ramp, so that no input is degenerate. */
+  private static int[] syntheticFrame(final int width, final int height) {
+    final int[] pixels = new int[width * height];
+    for (int y = 0; y < height; ++y) {
+      final int green = y * 255 / Math.max(1, height - 1);
+      for (int x = 0; x < width; ++x) {
+        final int red = x * 255 / Math.max(1, width - 1);
+        pixels[y * width + x] = 0xff000000 | (red << 16) | (green << 8) | 0x80;
+      }
+    }
+    return pixels;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.StringTokenizer;
+
+/**
+ * Box priors of a MultiBox model: for each of the four box coordinates of each location, the mean
+ * and standard deviation used to decode the model's location encoding.
+ * <p>
+ * <p>The text priors file interleaves mean and std per coordinate. It is parsed once and written
+ * to a little-endian binary cache holding all means followed by all stds; later loads map that
+ * file instead of parsing text. Either way the priors end up as two contiguous arrays indexed like
+ * the location encoding, so decoding is a single sequential pass.
+ * <p>
+ * <p>The cache is keyed on the length and version of the text file rather than on its name, so
+ * that a cache written for an older version of the file is never loaded. Both are known without
+ * reading the file: the version of an asset is that of the installed app, and that of a plain
+ * file its modification time. A cache hit therefore never touches the text.
+ */
+final class MultiBoxPriors {
+  private static final Logger LOGGER = new Logger();
+
+  // "MBP3", followed by the location count and the length and version of the source file.
+  private static final int MAGIC = 0x4d425033;
+  private static final int HEADER_BYTES = 24;
+
+  private final int numLocations;
+  private final float[] means;
+  private final float[] stds;
+
+  private MultiBoxPriors(final int numLocations, final float[] means, final float[] stds) {
+    this.numLocations = numLocations;
+    this.means = means;
+    this.stds = stds;
+  }
+
+  /**
+   * Loads {@code numLocations} box priors from {@code locationFilename}, an asset URI or a file
+   * path, going through a binary cache in {@code cacheDir} if it is not null.
+   *
+   * @param assetVersion A value that changes whenever the assets may have, such as the time the
+   *     app was last installed or updated. Ignored for plain files.
+   */
+  static MultiBoxPriors load(
+      final AssetManager assetManager,
+      final String locationFilename,
+      final int numLocations,
+      final File cacheDir,
+      final long assetVersion)
+      throws IOException {
+    final long startTime = SystemClock.uptimeMillis();
+    final long sourceLength;
+    final long sourceVersion;
+    if (locationFilename.startsWith(AssetFiles.ASSET_PREFIX)) {
+      // Opening an asset does not inflate it, and its stream knows the full length.
+      final InputStream is = AssetFiles.openAsset(assetManager, locationFilename);
+      try {
+        sourceLength = is.available();
+      } finally {
+        is.close();
+      }
+      sourceVersion = assetVersion;
+    } else {
+      final File file = new File(locationFilename);
+      sourceLength = file.length();
+      sourceVersion = file.lastModified();
+    }
+    // Named after the source, so that a changed source overwrites its stale cache.
+    final File cacheFile =
+        cacheDir != null
+            ? new File(
+                cacheDir, "multibox_priors_" + Integer.toHexString(locationFilename.hashCode()))
+            : null;
+
+    MultiBoxPriors priors = null;
+    if (cacheFile != null && cacheFile.isFile()) {
+      try {
+        priors = readCache(cacheFile, numLocations, sourceLength, sourceVersion);
+      } catch (final IOException e) {
+        LOGGER.w("Ignoring box prior cache %s: %s", cacheFile, e);
+      }
+    }
+    final boolean cached = priors != null;
+    if (!cached) {
+      priors = parse(readBytes(assetManager, locationFilename), numLocations);
+      if (cacheFile != null) {
+        try {
+          priors.writeCache(cacheFile, sourceLength, sourceVersion);
+        } catch (final IOException e) {
+          LOGGER.w("Could not write box prior cache %s: %s", cacheFile, e);
+        }
+      }
+    }
+    LOGGER.i(
+        "Loaded %d box priors from %s in %dms",
+        numLocations,
+        cached ? cacheFile : locationFilename,
+        SystemClock.uptimeMillis() - startTime);
+    return priors;
+  }
+
+  /**
+   * Decodes a location encoding of {@code numLocations * 4} values into box corners in [0, 1].
+   *
+   * @return Whether any encoded value was non-zero.
+   */
+  boolean decode(final float[] encoding, final float[] locations) {
+    boolean nonZero = false;
+    for (int i = 0; i < means.length; ++i) {
+      final float currEncoding = encoding[i];
+      nonZero |= currEncoding != 0.0f;
+      locations[i] = Math.min(1.0f, Math.max(0.0f, currEncoding * stds[i] + means[i]));
+    }
+    return nonZero;
+  }
+
+  int getNumLocations() {
+    return numLocations;
+  }
+
+  private static byte[] readBytes(final AssetManager assetManager, final String locationFilename)
+      throws IOException {
+    // Try to be intelligent about opening from assets or sdcard depending on prefix.
+    final InputStream is;
+    if (locationFilename.startsWith(AssetFiles.ASSET_PREFIX)) {
+      is = AssetFiles.openAsset(assetManager, locationFilename);
+    } else {
+      is = new FileInputStream(locationFilename);
+    }
+    return AssetFiles.readBytes(is);
+  }
+
+  private static MultiBoxPriors parse(final byte[] source, final int numLocations)
+      throws IOException {
+    // Read values. Number of values per line doesn't matter, as long as they are separated
+    // by commas and/or whitespace, and there are exactly numLocations * 8 values total.
+    // Values are in the order mean, std for each consecutive corner of each box, for a total of 8
+    // per location.
+    final float[] means = new float[numLocations * 4];
+    final float[] stds = new float[numLocations * 4];
+    int priorIndex = 0;
+    final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(source)));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final StringTokenizer st = new StringTokenizer(line, ", ");
+        while (st.hasMoreTokens()) {
+          final float number;
+          try {
+            number = Float.parseFloat(st.nextToken());
+          } catch (final NumberFormatException e) {
+            // Silently ignore.
+            continue;
+          }
+          if (priorIndex < numLocations * 8) {
+            final float[] target = (priorIndex & 1) == 0 ? means : stds;
+            target[priorIndex >> 1] = number;
+          }
+          ++priorIndex;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    if (priorIndex != numLocations * 8) {
+      throw new IOException(
+          "BoxPrior length mismatch: " + priorIndex + " vs " + numLocations * 8);
+    }
+    return new MultiBoxPriors(numLocations, means, stds);
+  }
+
+  private static MultiBoxPriors readCache(
+      final File cacheFile,
+      final int numLocations,
+      final long sourceLength,
+      final long sourceVersion)
+      throws IOException {
+    final long expectedBytes = HEADER_BYTES + numLocations * 8L * 4;
+    final RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      if (channel.size() != expectedBytes) {
+        throw new IOException("Expected " + expectedBytes + " bytes, found " + channel.size());
+      }
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedBytes);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != MAGIC
+          || buffer.getInt() != numLocations
+          || buffer.getLong() != sourceLength
+          || buffer.getLong() != sourceVersion) {
+        throw new IOException("Cache is stale");
+      }
+      final FloatBuffer values = buffer.asFloatBuffer();
+      final float[] means = new float[numLocations * 4];
+      final float[] stds = new float[numLocations * 4];
+      values.get(means);
+      values.get(stds);
+      return new MultiBoxPriors(numLocations, means, stds);
+    } finally {
+      file.close();
+    }
+  }
+
+  private void writeCache(final File cacheFile, final long sourceLength, final long sourceVersion)
+      throws IOException {
+    final ByteBuffer buffer =
+        ByteBuffer.allocate(HEADER_BYTES + (means.length + stds.length) * 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(numLocations).putLong(sourceLength).putLong(sourceVersion);
+    buffer.asFloatBuffer().put(means).put(stds);
+    AssetFiles.writeAtomically(cacheFile, buffer.array());
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.FastMath;
+import com.google.ar.sceneform.samples.TensorFlow.env.TopKSelector;
+
+import java.util.Arrays;
+
+/**
+ * Non-maximum suppression over candidate boxes held in primitive arrays: boxes as interleaved
+ * left, top, right, bottom, one score per box and optionally one class id per box.
+ * <p>
+ * <p>Two variants are available. {@link #greedy} keeps the best box and discards every
+ * lower-scoring box overlapping it by more than an IoU threshold. {@link #soft} instead decays the
+ * scores of overlapping boxes by a Gaussian of their IoU (Bodla et al., 2017). Either can be made
+ * class-aware, so that only boxes of the same class suppress each other.
+ * <p>
+ * <p>Candidates are sorted once by score, with a primitive sort, or, if there are more than
+ * {@link #setMaxCandidates maxCandidates}, only the best of them are selected with a
+ * {@link TopKSelector}. Each one is then only compared against boxes already kept. Greedy
+ * suppression keeps those sorted by left edge, so that only kept boxes whose horizontal extent
+ * can reach the candidate are visited, and pairs that do not overlap vertically are rejected
+ * before computing their IoU. Scratch space grows to the largest candidate count seen and is
+ * reused afterwards, so instances are not thread-safe.
+ */
+public final class NonMaxSuppression {
+  private final boolean soft;
+  private final float iouThreshold;
+  private final float sigma;
+  private boolean classAware;
+  private int maxResults = Integer.MAX_VALUE;
+  private TopKSelector topCandidates;
+
+  // Sort keys: the score's order-preserving bits in the high word and, in the low word, the
+  // candidate counted down from Integer.MAX_VALUE so that ties favour the lower index.
+  private long[] sortKeys = new long[0];
+  private float[] areas = new float[0];
+  // Candidates passing the score floor, best first.
+  private int[] order = new int[0];
+  // Boxes kept by greedy suppression ordered by left edge, and those left edges.
+  private int[] keptByLeft = new int[0];
+  private float[] keptLefts = new float[0];
+  // Candidates still in play for soft suppression, and their decayed scores.
+  private int[] pending = new int[0];
+  private float[] pendingScores = new float[0];
+
+  private NonMaxSuppression(final boolean soft, final float iouThreshold, final float sigma) {
+    this.soft = soft;
+    this.iouThreshold = iouThreshold;
+    this.sigma = sigma;
+  }
+
+  /**
+   * Returns a greedy suppressor discarding boxes whose IoU with a kept box exceeds the threshold.
+   */
+  public static NonMaxSuppression greedy(final float iouThreshold) {
+    return new NonMaxSuppression(false, iouThreshold, 0.0f);
+  }
+
+  /**
+   * Returns a soft suppressor multiplying the score of each box by {@code exp(-iou^2 / sigma)}
+   * for every better box kept before it.
+   */
+  public static NonMaxSuppression soft(final float sigma) {
+    if (sigma <= 0) {
+      throw new IllegalArgumentException("Sigma must be positive: " + sigma);
+    }
+    return new NonMaxSuppression(true, 0.0f, sigma);
+  }
+
+  /** Only lets boxes of the same class suppress each other. Off by default. */
+  public NonMaxSuppression setClassAware(final boolean classAware) {
+    this.classAware = classAware;
+    return this;
+  }
+
+  /** Stops once this many boxes have been kept. Unbounded by default. */
+  public NonMaxSuppression setMaxResults(final int maxResults) {
+    this.maxResults = maxResults;
+    return this;
+  }
+
+  /**
+   * Only considers the {@code maxCandidates} best-scoring candidates, dropping the rest before
+   * suppression. Unbounded by default.
+   */
+  public NonMaxSuppression setMaxCandidates(final int maxCandidates) {
+    topCandidates = maxCandidates != Integer.MAX_VALUE ? new TopKSelector(maxCandidates) : null;
+    return this;
+  }
+
+  /**
+   * Suppresses overlapping boxes among the first {@code count} candidates and writes the indices
+   * of the survivors to {@code keep} in decreasing score order.
+   * <p>
+   * <p>Candidates scoring below {@code minScore} are ignored. For soft suppression this also
+   * applies to decayed scores, and the decayed scores of kept boxes are written back to
+   * {@code scores}.
+   *
+   * @param classIds Class of each candidate, or null if all share one class.
+   * @return The number of indices written to {@code keep}.
+   */
+  public int apply(
+      final float[] boxes,
+      final float[] scores,
+      final int[] classIds,
+      final int count,
+      final float minScore,
+      final int[] keep) {
+    ensureCapacity(count);
+    final boolean byClass = classAware && classIds != null;
+
+    final int numCandidates;
+    if (topCandidates != null) {
+      topCandidates.clear();
+      for (int i = 0; i < count; ++i) {
+        if (scores[i] >= minScore) {
+          topCandidates.offer(scores[i], i);
+        }
+      }
+      numCandidates = topCandidates.drain(order, null);
+    } else {
+      int numPassing = 0;
+      for (int i = 0; i < count; ++i) {
+        if (scores[i] >= minScore) {
+          sortKeys[numPassing++] = sortKey(scores[i], i);
+        }
+      }
+      Arrays.sort(sortKeys, 0, numPassing);
+      // Keys sort ascending, so read them from the best score down.
+      for (int k = 0; k < numPassing; ++k) {
+        order[k] = candidate(sortKeys[numPassing - 1 - k]);
+      }
+      numCandidates = numPassing;
+    }
+    for (int k = 0; k < numCandidates; ++k) {
+      areas[order[k]] = area(boxes, order[k]);
+    }
+
+    if (soft) {
+      return applySoft(boxes, scores, classIds, byClass, numCandidates, minScore, keep);
+    }
+
+    int numKept = 0;
+    float maxKeptWidth = 0.0f;
+    for (int k = 0; k < numCandidates && numKept < maxResults; ++k) {
+      final int candidate = order[k];
+      final float left = boxes[4 * candidate];
+      final float right = boxes[4 * candidate + 2];
+
+      // Kept boxes starting further left than this cannot reach the candidate.
+      boolean suppressed = false;
+      for (int j = lowerBound(keptLefts, numKept, left - maxKeptWidth);
+          j < numKept && keptLefts[j] < right;
+          ++j) {
+        final int kept = keptByLeft[j];
+        if (byClass && classIds[kept] != classIds[candidate]) {
+          continue;
+        }
+        if (iou(boxes, candidate, kept) > iouThreshold) {
+          suppressed = true;
+          break;
+        }
+      }
+      if (suppressed) {
+        continue;
+      }
+
+      final int position = lowerBound(keptLefts, numKept, left);
+      System.arraycopy(keptByLeft, position, keptByLeft, position + 1, numKept - position);
+      System.arraycopy(keptLefts, position, keptLefts, position + 1, numKept - position);
+      keptByLeft[position] = candidate;
+      keptLefts[position] = left;
+      maxKeptWidth = Math.max(maxKeptWidth, right - left);
+      keep[numKept++] = candidate;
+    }
+    return numKept;
+  }
+
+  private int applySoft(
+      final float[] boxes,
+      final float[] scores,
+      final int[] classIds,
+      final boolean byClass,
+      final int numCandidates,
+      final float minScore,
+      final int[] keep) {
+    for (int k = 0; k < numCandidates; ++k) {
+      final int candidate = order[k];
+      pending[k] = candidate;
+      pendingScores[k] = scores[candidate];
+    }
+
+    int numPending = numCandidates;
+    int numKept = 0;
+    while (numPending > 0 && numKept < maxResults) {
+      int best = 0;
+      for (int k = 1; k < numPending; ++k) {
+        if (pendingScores[k] > pendingScores[best]) {
+          best = k;
+        }
+      }
+      final int kept = pending[best];
+      scores[kept] = pendingScores[best];
+      keep[numKept++] = kept;
+
+      // Remove the kept box, then decay the rest and drop those falling below the floor.
+      int remaining = 0;
+      for (int k = 0; k < numPending; ++k) {
+        if (k == best) {
+          continue;
+        }
+        final int candidate = pending[k];
+        float score = pendingScores[k];
+        if (!byClass || classIds[candidate] == classIds[kept]) {
+          final float iou = iou(boxes, candidate, kept);
+          if (iou > 0) {
+            score *= FastMath.exp(-iou * iou / sigma);
+          }
+        }
+        if (score >= minScore) {
+          pending[remaining] = candidate;
+          pendingScores[remaining] = score;
+          ++remaining;
+        }
+      }
+      numPending = remaining;
+    }
+    return numKept;
+  }
+
+  private float iou(final float[] boxes, final int a, final int b) {
+    final float left = Math.max(boxes[4 * a], boxes[4 * b]);
+    final float right = Math.min(boxes[4 * a + 2], boxes[4 * b + 2]);
+    if (right <= left) {
+      return 0.0f;
+    }
+    final float top = Math.max(boxes[4 * a + 1], boxes[4 * b + 1]);
+    final float bottom = Math.min(boxes[4 * a + 3], boxes[4 * b + 3]);
+    if (bottom <= top) {
+      return 0.0f;
+    }
+    final float intersection = (right - left) * (bottom - top);
+    return intersection / (areas[a] + areas[b] - intersection);
+  }
+
+  /** Returns the first index in the sorted {@code values[0, size)} not below {@code key}. */
+  private static int lowerBound(final float[] values, final int size, final float key) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (values[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static float area(final float[] boxes, final int i) {
+    return Math.max(0.0f, boxes[4 * i + 2] - boxes[4 * i])
+        * Math.max(0.0f, boxes[4 * i + 3] - boxes[4 * i + 1]);
+  }
+
+  private static long sortKey(final float score, final int index) {
+    // Flip the magnitude bits of negative floats so that the int compares like the float.
+    final int bits = Float.floatToIntBits(score);
+    final int ordered = bits ^ ((bits >> 31) & 0x7fffffff);
+    return ((long) ordered << 32) | (Integer.MAX_VALUE - index);
+  }
+
+  private static int candidate(final long sortKey) {
+    return Integer.MAX_VALUE - (int) sortKey;
+  }
+
+  private void ensureCapacity(final int count) {
+    if (sortKeys.length < count) {
+      sortKeys = new long[count];
+      areas = new float[count];
+      order = new int[count];
+      keptByLeft = new int[count];
+      keptLefts = new float[count];
+      pending = new int[count];
+      pendingScores = new float[count];
+    }
+  }
+}
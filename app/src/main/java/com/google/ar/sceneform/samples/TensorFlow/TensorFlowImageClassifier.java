@@ -22,15 +22,16 @@ import android.util.Log;
 
 import org.tensorflow.Operation;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImagePreprocessor;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImageUtils;
+import com.google.ar.sceneform.samples.TensorFlow.env.Normalizer;
+import com.google.ar.sceneform.samples.TensorFlow.env.TopKSelector;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Vector;
 
 /** A classifier specialized to label images using TensorFlow. */
 public class TensorFlowImageClassifier implements Classifier {
@@ -44,15 +45,29 @@ public class TensorFlowImageClassifier implements Classifier {
   private String inputName;
   private String outputName;
   private int inputSize;
-  private int imageMean;
-  private float imageStd;
+  private Normalizer normalizer;
 
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private LabelTable labels;
   private int[] intValues;
-  private float[] floatValues;
+  // Direct, native-ordered model input written by the preprocessor and fed as is.
+  private FloatBuffer inputBuffer;
   private float[] outputs;
   private String[] outputNames;
+  private int numClasses;
+
+  // Buffers for recognizeImages, sized for the last batch size seen.
+  private int batchSize;
+  private float[] batchFloatValues;
+  private float[] batchOutputs;
+  private ImagePreprocessor preprocessor;
+
+  private final DetectionBuffer detections = new DetectionBuffer(MAX_RESULTS);
+  private final TopKSelector topResults = new TopKSelector(MAX_RESULTS);
+  private final int[] topClasses = new int[MAX_RESULTS];
+  private final float[] topScores = new float[MAX_RESULTS];
+
+  private float minimumConfidence;
 
   private boolean logStats = false;
 
@@ -87,17 +102,9 @@ public class TensorFlowImageClassifier implements Classifier {
     c.outputName = outputName;
 
     // Read the label names into memory.
-    // TODO(andrewharp): make this handle non-assets.
-    String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    Log.i(TAG, "Reading labels from: " + actualFilename);
-    BufferedReader br = null;
+    Log.i(TAG, "Reading labels from: " + labelFilename);
     try {
-      br = new BufferedReader(new InputStreamReader(assetManager.open(actualFilename)));
-      String line;
-      while ((line = br.readLine()) != null) {
-        c.labels.add(line);
-      }
-      br.close();
+      c.labels = LabelTable.load(assetManager, labelFilename);
     } catch (IOException e) {
       throw new RuntimeException("Problem reading label file!" , e);
     }
@@ -113,38 +120,61 @@ public class TensorFlowImageClassifier implements Classifier {
     // the placeholder node for input in the graphdef typically used does not specify a shape, so it
     // must be passed in as a parameter.
     c.inputSize = inputSize;
-    c.imageMean = imageMean;
-    c.imageStd = imageStd;
+    c.normalizer = Normalizer.meanStd(imageMean, imageStd);
 
     // Pre-allocate buffers.
     c.outputNames = new String[] {outputName};
     c.intValues = new int[inputSize * inputSize];
-    c.floatValues = new float[inputSize * inputSize * 3];
     c.outputs = new float[numClasses];
+    c.numClasses = numClasses;
+    c.preprocessor = new ImagePreprocessor(inputSize, inputSize);
+    c.inputBuffer = c.preprocessor.allocateFloatBuffer();
 
     return c;
   }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    intValues = ImageUtils.getPixels(bitmap, intValues);
+    return recognizeImage(intValues, bitmap.getWidth(), bitmap.getHeight());
+  }
+
+  @Override
+  public DetectionBuffer detect(final int[] pixels, final int width, final int height) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
     Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data from 0-255 int to normalized float based
+    // Resize and normalize the image data from 0-255 int to float based
     // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    for (int i = 0; i < intValues.length; ++i) {
-      final int val = intValues[i];
-      floatValues[i * 3 + 0] = (((val >> 16) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 1] = (((val >> 8) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 2] = ((val & 0xFF) - imageMean) / imageStd;
-    }
+    preprocessor.toFloats(pixels, width, height, inputBuffer, normalizer);
     Trace.endSection();
 
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  @Override
+  public DetectionBuffer detect(final YuvFrame frame) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+
+    Trace.beginSection("preprocessYuv");
+    preprocessor.toFloats(frame, inputBuffer, normalizer);
+    Trace.endSection();
+
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  /** Feeds the preprocessed input buffer to the session, runs it and keeps the top results. */
+  private void runModel() {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    inferenceInterface.feed(inputName, floatValues, 1, inputSize, inputSize, 3);
+    inputBuffer.rewind();
+    inferenceInterface.feed(inputName, inputBuffer, 1, inputSize, inputSize, 3);
     Trace.endSection();
 
     // Run the inference call.
@@ -157,31 +187,68 @@ public class TensorFlowImageClassifier implements Classifier {
     inferenceInterface.fetch(outputName, outputs);
     Trace.endSection();
 
-    // Find the best classifications.
-    PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            3,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(Recognition lhs, Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-    for (int i = 0; i < outputs.length; ++i) {
-      if (outputs[i] > THRESHOLD) {
-        pq.add(
-            new Recognition(
-                "" + i, labels.size() > i ? labels.get(i) : "unknown", outputs[i], null));
+    getTopResults(outputs, 0);
+  }
+
+  @Override
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    Trace.beginSection("recognizeImages");
+
+    final int imageSize = inputSize * inputSize * 3;
+    if (bitmaps.size() != batchSize) {
+      batchSize = bitmaps.size();
+      batchFloatValues = new float[batchSize * imageSize];
+      batchOutputs = new float[batchSize * numClasses];
+    }
+
+    Trace.beginSection("preprocessBitmap");
+    for (int b = 0; b < batchSize; ++b) {
+      final Bitmap bitmap = bitmaps.get(b);
+      intValues = ImageUtils.getPixels(bitmap, intValues);
+      preprocessor.toFloats(
+          intValues, bitmap.getWidth(), bitmap.getHeight(), batchFloatValues, b * imageSize,
+          normalizer);
+    }
+    Trace.endSection();
+
+    Trace.beginSection("feed");
+    inferenceInterface.feed(inputName, batchFloatValues, batchSize, inputSize, inputSize, 3);
+    Trace.endSection();
+
+    Trace.beginSection("run");
+    inferenceInterface.run(outputNames, logStats);
+    Trace.endSection();
+
+    Trace.beginSection("fetch");
+    inferenceInterface.fetch(outputName, batchOutputs);
+    Trace.endSection();
+
+    final List<List<Recognition>> results = new ArrayList<List<Recognition>>(batchSize);
+    for (int b = 0; b < batchSize; ++b) {
+      getTopResults(batchOutputs, b * numClasses);
+      results.add(new ArrayList<Recognition>(detections.asRecognitions()));
+    }
+    Trace.endSection(); // "recognizeImages"
+    return results;
+  }
+
+  /**
+   * Writes the best classifications among the {@code numClasses} scores at {@code offset} to
+   * {@link #detections}, best first.
+   */
+  private void getTopResults(final float[] outputs, final int offset) {
+    for (int i = 0; i < numClasses; ++i) {
+      final float score = outputs[offset + i];
+      if (score > THRESHOLD && score >= minimumConfidence) {
+        topResults.offer(score, i);
       }
     }
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    int recognitionsSize = Math.min(pq.size(), MAX_RESULTS);
-    for (int i = 0; i < recognitionsSize; ++i) {
-      recognitions.add(pq.poll());
+    final int count = topResults.drain(topClasses, topScores);
+    detections.clear();
+    for (int k = 0; k < count; ++k) {
+      final int i = topClasses[k];
+      detections.add(topScores[k], i, labels.size() > i ? labels.get(i) : "unknown", i);
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
   }
 
   @Override
@@ -189,6 +256,26 @@ public class TensorFlowImageClassifier implements Classifier {
     this.logStats = logStats;
   }
 
+  @Override
+  public void enableParallelPreprocessing(final int minPixels) {
+    preprocessor.setParallelThreshold(minPixels);
+  }
+
+  @Override
+  public void setMinimumConfidence(final float minimumConfidence) {
+    this.minimumConfidence = minimumConfidence;
+  }
+
+  @Override
+  public LabelTable getLabels() {
+    return labels;
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+
   @Override
   public String getStatString() {
     return inferenceInterface.getStatString();
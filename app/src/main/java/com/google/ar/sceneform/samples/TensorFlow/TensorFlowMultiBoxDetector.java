@@ -17,24 +17,21 @@ package com.google.ar.sceneform.samples.TensorFlow;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImagePreprocessor;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImageUtils;
+import com.google.ar.sceneform.samples.TensorFlow.env.Normalizer;
 import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.nio.FloatBuffer;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.StringTokenizer;
 
 /**
  * A detector for general purpose object detection as described in Scalable Object Detection using
@@ -46,25 +43,43 @@ public class TensorFlowMultiBoxDetector implements Classifier {
   // Only return this many results.
   private static final int MAX_RESULTS = Integer.MAX_VALUE;
 
+  // Boxes overlapping a better one by more than this are dropped.
+  private static final float NMS_IOU_THRESHOLD = 0.5f;
+
+  // Only the best scoring locations are considered for suppression.
+  private static final int MAX_NMS_CANDIDATES = 100;
+
   // Config values.
   private String inputName;
   private int inputSize;
-  private int imageMean;
-  private float imageStd;
+  private Normalizer normalizer;
 
   // Pre-allocated buffers.
   private int[] intValues;
-  private float[] floatValues;
+  // Direct, native-ordered model input written by the preprocessor and fed as is.
+  private FloatBuffer inputBuffer;
+  private float[] outputLocationsEncoding;
+  private float[] outputScoresEncoding;
   private float[] outputLocations;
   private float[] outputScores;
+  private int[] keep;
+  private DetectionBuffer detections;
   private String[] outputNames;
   private int numLocations;
+  private ImagePreprocessor preprocessor;
+
+  private final NonMaxSuppression nms =
+      NonMaxSuppression.greedy(NMS_IOU_THRESHOLD)
+          .setMaxCandidates(MAX_NMS_CANDIDATES)
+          .setMaxResults(MAX_RESULTS);
+
+  private float minimumConfidence;
 
   private boolean logStats = false;
 
   private TensorFlowInferenceInterface inferenceInterface;
 
-  private float[] boxPriors;
+  private MultiBoxPriors priors;
 
   /**
    * Initializes a native TensorFlow session for classifying images.
@@ -87,13 +102,43 @@ public class TensorFlowMultiBoxDetector implements Classifier {
       final String inputName,
       final String outputLocationsName,
       final String outputScoresName) {
-    final TensorFlowMultiBoxDetector d = new TensorFlowMultiBoxDetector();
+    return create(
+        assetManager,
+        modelFilename,
+        locationFilename,
+        imageMean,
+        imageStd,
+        inputName,
+        outputLocationsName,
+        outputScoresName,
+        null,
+        0);
+  }
 
-    d.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+  /**
+   * Like {@link #create(AssetManager, String, String, int, float, String, String, String)}, but
+   * caches the parsed box priors in binary form in {@code cacheDir}, so that later sessions map
+   * them instead of parsing the text file again.
+   *
+   * @param assetVersion A value that changes whenever the assets may have, such as the time the
+   *     app was last installed or updated. The cache is only used while it is unchanged.
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String locationFilename,
+      final int imageMean,
+      final float imageStd,
+      final String inputName,
+      final String outputLocationsName,
+      final String outputScoresName,
+      final File cacheDir,
+      final long assetVersion) {
+    final TensorFlowInferenceInterface inferenceInterface =
+        new TensorFlowInferenceInterface(assetManager, modelFilename);
 
-    final Graph g = d.inferenceInterface.graph();
+    final Graph g = inferenceInterface.graph();
 
-    d.inputName = inputName;
     // The inputName node has a shape of [N, H, W, C], where
     // N is the batch size
     // H = W are the height and width
@@ -102,125 +147,96 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     if (inputOp == null) {
       throw new RuntimeException("Failed to find input Node '" + inputName + "'");
     }
-    d.inputSize = (int) inputOp.output(0).shape().size(1);
-    d.imageMean = imageMean;
-    d.imageStd = imageStd;
+    final int inputSize = (int) inputOp.output(0).shape().size(1);
     // The outputScoresName node has a shape of [N, NumLocations], where N
     // is the batch size.
     final Operation outputOp = g.operation(outputScoresName);
     if (outputOp == null) {
       throw new RuntimeException("Failed to find output Node '" + outputScoresName + "'");
     }
-    d.numLocations = (int) outputOp.output(0).shape().size(1);
-
-    d.boxPriors = new float[d.numLocations * 8];
+    final int numLocations = (int) outputOp.output(0).shape().size(1);
 
+    final MultiBoxPriors priors;
     try {
-      d.loadCoderOptions(assetManager, locationFilename, d.boxPriors);
+      priors = MultiBoxPriors.load(
+          assetManager, locationFilename, numLocations, cacheDir, assetVersion);
     } catch (final IOException e) {
-      throw new RuntimeException("Error initializing box priors from " + locationFilename);
+      throw new RuntimeException("Error initializing box priors from " + locationFilename, e);
     }
 
-    // Pre-allocate buffers.
+    final TensorFlowMultiBoxDetector d =
+        new TensorFlowMultiBoxDetector(
+            priors, inputSize, Normalizer.meanStd(imageMean, imageStd));
+    d.inferenceInterface = inferenceInterface;
+    d.inputName = inputName;
     d.outputNames = new String[] {outputLocationsName, outputScoresName};
-    d.intValues = new int[d.inputSize * d.inputSize];
-    d.floatValues = new float[d.inputSize * d.inputSize * 3];
-    d.outputScores = new float[d.numLocations];
-    d.outputLocations = new float[d.numLocations * 4];
-
     return d;
   }
 
-  private TensorFlowMultiBoxDetector() {}
-
-  private void loadCoderOptions(
-      final AssetManager assetManager, final String locationFilename, final float[] boxPriors)
-      throws IOException {
-    // Try to be intelligent about opening from assets or sdcard depending on prefix.
-    final String assetPrefix = "file:///android_asset/";
-    InputStream is;
-    if (locationFilename.startsWith(assetPrefix)) {
-      is = assetManager.open(locationFilename.split(assetPrefix)[1]);
-    } else {
-      is = new FileInputStream(locationFilename);
-    }
-
-    // Read values. Number of values per line doesn't matter, as long as they are separated
-    // by commas and/or whitespace, and there are exactly numLocations * 8 values total.
-    // Values are in the order mean, std for each consecutive corner of each box, for a total of 8
-    // per location.
-    final BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-    int priorIndex = 0;
-    String line;
-    while ((line = reader.readLine()) != null) {
-      final StringTokenizer st = new StringTokenizer(line, ", ");
-      while (st.hasMoreTokens()) {
-        final String token = st.nextToken();
-        try {
-          final float number = Float.parseFloat(token);
-          boxPriors[priorIndex++] = number;
-        } catch (final NumberFormatException e) {
-          // Silently ignore.
-        }
-      }
-    }
-    if (priorIndex != boxPriors.length) {
-      throw new RuntimeException(
-          "BoxPrior length mismatch: " + priorIndex + " vs " + boxPriors.length);
-    }
+  /** Pre-allocates every buffer used per frame. The session is attached by {@link #create}. */
+  TensorFlowMultiBoxDetector(
+      final MultiBoxPriors priors, final int inputSize, final Normalizer normalizer) {
+    this.priors = priors;
+    this.inputSize = inputSize;
+    this.normalizer = normalizer;
+    numLocations = priors.getNumLocations();
+    intValues = new int[inputSize * inputSize];
+    outputScoresEncoding = new float[numLocations];
+    outputLocationsEncoding = new float[numLocations * 4];
+    outputScores = new float[numLocations];
+    outputLocations = new float[numLocations * 4];
+    keep = new int[numLocations];
+    detections = new DetectionBuffer(numLocations);
+    preprocessor = new ImagePreprocessor(inputSize, inputSize);
+    inputBuffer = preprocessor.allocateFloatBuffer();
   }
 
-  private float[] decodeLocationsEncoding(final float[] locationEncoding) {
-    final float[] locations = new float[locationEncoding.length];
-    boolean nonZero = false;
-    for (int i = 0; i < numLocations; ++i) {
-      for (int j = 0; j < 4; ++j) {
-        final float currEncoding = locationEncoding[4 * i + j];
-        nonZero = nonZero || currEncoding != 0.0f;
-
-        final float mean = boxPriors[i * 8 + j * 2];
-        final float stdDev = boxPriors[i * 8 + j * 2 + 1];
-        float currentLocation = currEncoding * stdDev + mean;
-        currentLocation = Math.max(currentLocation, 0.0f);
-        currentLocation = Math.min(currentLocation, 1.0f);
-        locations[4 * i + j] = currentLocation;
-      }
-    }
-
-    if (!nonZero) {
-      LOGGER.w("No non-zero encodings; check log for inference errors.");
-    }
-    return locations;
-  }
-
-  private float[] decodeScoresEncoding(final float[] scoresEncoding) {
-    final float[] scores = new float[scoresEncoding.length];
+  private void decodeScoresEncoding(final float[] scoresEncoding, final float[] scores) {
     for (int i = 0; i < scoresEncoding.length; ++i) {
       scores[i] = 1 / ((float) (1 + Math.exp(-scoresEncoding[i])));
     }
-    return scores;
   }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    intValues = ImageUtils.getPixels(bitmap, intValues);
+    return recognizeImage(intValues, bitmap.getWidth(), bitmap.getHeight());
+  }
+
+  @Override
+  public DetectionBuffer detect(final int[] pixels, final int width, final int height) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
     Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data from 0-255 int to normalized float based
-    // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-    for (int i = 0; i < intValues.length; ++i) {
-      floatValues[i * 3 + 0] = (((intValues[i] >> 16) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 1] = (((intValues[i] >> 8) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 2] = ((intValues[i] & 0xFF) - imageMean) / imageStd;
-    }
+    preprocess(pixels, width, height);
     Trace.endSection(); // preprocessBitmap
 
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  @Override
+  public DetectionBuffer detect(final YuvFrame frame) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+
+    Trace.beginSection("preprocessYuv");
+    preprocess(frame);
+    Trace.endSection(); // preprocessYuv
+
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  /** Feeds the preprocessed input buffer to the session, runs it and decodes its outputs. */
+  private void runModel() {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    inferenceInterface.feed(inputName, floatValues, 1, inputSize, inputSize, 3);
+    inputBuffer.rewind();
+    inferenceInterface.feed(inputName, inputBuffer, 1, inputSize, inputSize, 3);
     Trace.endSection();
 
     // Run the inference call.
@@ -230,44 +246,58 @@ public class TensorFlowMultiBoxDetector implements Classifier {
 
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
-    final float[] outputScoresEncoding = new float[numLocations];
-    final float[] outputLocationsEncoding = new float[numLocations * 4];
     inferenceInterface.fetch(outputNames[0], outputLocationsEncoding);
     inferenceInterface.fetch(outputNames[1], outputScoresEncoding);
     Trace.endSection();
 
-    outputLocations = decodeLocationsEncoding(outputLocationsEncoding);
-    outputScores = decodeScoresEncoding(outputScoresEncoding);
-
-    // Find the best detections.
-    final PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            1,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(final Recognition lhs, final Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
+    decodeDetections(outputLocationsEncoding, outputScoresEncoding);
+  }
 
-    // Scale them back to the input size.
-    for (int i = 0; i < outputScores.length; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[4 * i] * inputSize,
-              outputLocations[4 * i + 1] * inputSize,
-              outputLocations[4 * i + 2] * inputSize,
-              outputLocations[4 * i + 3] * inputSize);
-      pq.add(new Recognition("" + i, null, outputScores[i], detection));
+  /**
+   * Resizes the pixels and normalizes them from 0-255 ints to floats based on the provided mean
+   * and std, writing them into the model input buffer.
+   */
+  void preprocess(final int[] pixels, final int width, final int height) {
+    preprocessor.toFloats(pixels, width, height, inputBuffer, normalizer);
+  }
+
+  /** Like {@link #preprocess(int[], int, int)}, for the upright crop of a YUV frame. */
+  void preprocess(final YuvFrame frame) {
+    preprocessor.toFloats(frame, inputBuffer, normalizer);
+  }
+
+  /**
+   * Decodes fetched location and score encodings, suppresses overlapping boxes and writes the
+   * survivors to {@link #detections}, in input coordinates.
+   *
+   * @return {@link #detections}, which every call refills.
+   */
+  DetectionBuffer decodeDetections(
+      final float[] outputLocationsEncoding, final float[] outputScoresEncoding) {
+    if (!priors.decode(outputLocationsEncoding, outputLocations)) {
+      LOGGER.w("No non-zero encodings; check log for inference errors.");
     }
+    decodeScoresEncoding(outputScoresEncoding, outputScores);
 
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
+    // Find the best detections. IoU does not depend on scale, so suppress in model coordinates.
+    final int numKept =
+        nms.apply(outputLocations, outputScores, null, numLocations, minimumConfidence, keep);
+
+    // Scale them back to the input size.
+    detections.clear();
+    for (int k = 0; k < numKept; ++k) {
+      final int i = keep[k];
+      detections.add(
+          outputLocations[4 * i] * inputSize,
+          outputLocations[4 * i + 1] * inputSize,
+          outputLocations[4 * i + 2] * inputSize,
+          outputLocations[4 * i + 3] * inputSize,
+          outputScores[i],
+          0,
+          null,
+          i);
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
+    return detections;
   }
 
   @Override
@@ -275,6 +305,21 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     this.logStats = logStats;
   }
 
+  @Override
+  public void enableParallelPreprocessing(final int minPixels) {
+    preprocessor.setParallelThreshold(minPixels);
+  }
+
+  @Override
+  public void setMinimumConfidence(final float minimumConfidence) {
+    this.minimumConfidence = minimumConfidence;
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+
   @Override
   public String getStatString() {
     return inferenceInterface.getStatString();
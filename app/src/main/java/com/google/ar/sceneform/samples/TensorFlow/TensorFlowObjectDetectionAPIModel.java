@@ -17,23 +17,20 @@ package com.google.ar.sceneform.samples.TensorFlow;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImagePreprocessor;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImageUtils;
 import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Vector;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
@@ -48,16 +45,28 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
   // Config values.
   private String inputName;
   private int inputSize;
+  private float minimumConfidence;
 
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private LabelTable labels;
   private int[] intValues;
-  private byte[] byteValues;
+  // Direct, native-ordered model input written by the preprocessor and fed as is.
+  private ByteBuffer inputBuffer;
   private float[] outputLocations;
   private float[] outputScores;
   private float[] outputClasses;
   private float[] outputNumDetections;
+  private final DetectionBuffer detections = new DetectionBuffer(MAX_RESULTS);
   private String[] outputNames;
+  private ImagePreprocessor preprocessor;
+
+  // Buffers for recognizeImages, sized for the last batch size seen.
+  private int batchSize;
+  private byte[] batchByteValues;
+  private float[] batchOutputLocations;
+  private float[] batchOutputScores;
+  private float[] batchOutputClasses;
+  private float[] batchOutputNumDetections;
 
   private boolean logStats = false;
 
@@ -75,20 +84,22 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
       final String modelFilename,
       final String labelFilename,
       final int inputSize) throws IOException {
-    final TensorFlowObjectDetectionAPIModel d = new TensorFlowObjectDetectionAPIModel();
-
-    InputStream labelsInput = null;
-    String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    labelsInput = assetManager.open(actualFilename);
-    BufferedReader br = null;
-    br = new BufferedReader(new InputStreamReader(labelsInput));
-    String line;
-    while ((line = br.readLine()) != null) {
-      LOGGER.w(line);
-      d.labels.add(line);
-    }
-    br.close();
+    return create(assetManager, modelFilename, labelFilename, inputSize, 0.0f);
+  }
 
+  /**
+   * Like {@link #create(AssetManager, String, String, int)}, but only returns detections scoring
+   * at least {@code minimumConfidence}.
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final float minimumConfidence) throws IOException {
+    final TensorFlowObjectDetectionAPIModel d =
+        new TensorFlowObjectDetectionAPIModel(
+            LabelTable.load(assetManager, labelFilename), inputSize, minimumConfidence);
 
     d.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
 
@@ -103,7 +114,6 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     if (inputOp == null) {
       throw new RuntimeException("Failed to find input Node '" + d.inputName + "'");
     }
-    d.inputSize = inputSize;
     // The outputScoresName node has a shape of [N, NumLocations], where N
     // is the batch size.
     final Operation outputOp1 = g.operation("detection_scores");
@@ -119,40 +129,66 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
       throw new RuntimeException("Failed to find output Node 'detection_classes'");
     }
 
-    // Pre-allocate buffers.
     d.outputNames = new String[] {"detection_boxes", "detection_scores",
                                   "detection_classes", "num_detections"};
-    d.intValues = new int[d.inputSize * d.inputSize];
-    d.byteValues = new byte[d.inputSize * d.inputSize * 3];
-    d.outputScores = new float[MAX_RESULTS];
-    d.outputLocations = new float[MAX_RESULTS * 4];
-    d.outputClasses = new float[MAX_RESULTS];
-    d.outputNumDetections = new float[1];
     return d;
   }
 
-  private TensorFlowObjectDetectionAPIModel() {}
+  /** Pre-allocates every buffer used per frame. The session is attached by {@link #create}. */
+  TensorFlowObjectDetectionAPIModel(
+      final LabelTable labels, final int inputSize, final float minimumConfidence) {
+    this.labels = labels;
+    this.inputSize = inputSize;
+    this.minimumConfidence = minimumConfidence;
+    intValues = new int[inputSize * inputSize];
+    outputScores = new float[MAX_RESULTS];
+    outputLocations = new float[MAX_RESULTS * 4];
+    outputClasses = new float[MAX_RESULTS];
+    outputNumDetections = new float[1];
+    preprocessor = new ImagePreprocessor(inputSize, inputSize);
+    inputBuffer = preprocessor.allocateByteBuffer();
+  }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    intValues = ImageUtils.getPixels(bitmap, intValues);
+    return recognizeImage(intValues, bitmap.getWidth(), bitmap.getHeight());
+  }
+
+  @Override
+  public DetectionBuffer detect(final int[] pixels, final int width, final int height) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
     Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data to extract R, G and B bytes from int of form 0x00RRGGBB
-    // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-    for (int i = 0; i < intValues.length; ++i) {
-      byteValues[i * 3 + 2] = (byte) (intValues[i] & 0xFF);
-      byteValues[i * 3 + 1] = (byte) ((intValues[i] >> 8) & 0xFF);
-      byteValues[i * 3 + 0] = (byte) ((intValues[i] >> 16) & 0xFF);
-    }
+    preprocess(pixels, width, height);
     Trace.endSection(); // preprocessBitmap
 
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  @Override
+  public DetectionBuffer detect(final YuvFrame frame) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+
+    Trace.beginSection("preprocessYuv");
+    preprocess(frame);
+    Trace.endSection(); // preprocessYuv
+
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  /** Feeds the preprocessed input buffer to the session, runs it and decodes its outputs. */
+  private void runModel() {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    inferenceInterface.feed(inputName, byteValues, 1, inputSize, inputSize, 3);
+    inputBuffer.rewind();
+    inferenceInterface.feed(inputName, inputBuffer, 1, inputSize, inputSize, 3);
     Trace.endSection();
 
     // Run the inference call.
@@ -162,46 +198,113 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
 
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
-    outputLocations = new float[MAX_RESULTS * 4];
-    outputScores = new float[MAX_RESULTS];
-    outputClasses = new float[MAX_RESULTS];
-    outputNumDetections = new float[1];
     inferenceInterface.fetch(outputNames[0], outputLocations);
     inferenceInterface.fetch(outputNames[1], outputScores);
     inferenceInterface.fetch(outputNames[2], outputClasses);
     inferenceInterface.fetch(outputNames[3], outputNumDetections);
     Trace.endSection();
 
-    // Find the best detections.
-    final PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            1,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(final Recognition lhs, final Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    // Scale them back to the input size.
-    for (int i = 0; i < outputScores.length; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[4 * i + 1] * inputSize,
-              outputLocations[4 * i] * inputSize,
-              outputLocations[4 * i + 3] * inputSize,
-              outputLocations[4 * i + 2] * inputSize);
-      pq.add(
-          new Recognition("" + i, labels.get((int) outputClasses[i]), outputScores[i], detection));
+    decodeDetections(
+        outputLocations, outputScores, outputClasses, (int) outputNumDetections[0], 0);
+  }
+
+  /** Resizes the pixels and writes their R, G and B bytes into the model input buffer. */
+  void preprocess(final int[] pixels, final int width, final int height) {
+    preprocessor.toBytes(pixels, width, height, inputBuffer);
+  }
+
+  /** Like {@link #preprocess(int[], int, int)}, for the upright crop of a YUV frame. */
+  void preprocess(final YuvFrame frame) {
+    preprocessor.toBytes(frame, inputBuffer);
+  }
+
+  @Override
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    Trace.beginSection("recognizeImages");
+
+    final int imageSize = inputSize * inputSize * 3;
+    if (bitmaps.size() != batchSize) {
+      batchSize = bitmaps.size();
+      batchByteValues = new byte[batchSize * imageSize];
+      batchOutputLocations = new float[batchSize * MAX_RESULTS * 4];
+      batchOutputScores = new float[batchSize * MAX_RESULTS];
+      batchOutputClasses = new float[batchSize * MAX_RESULTS];
+      batchOutputNumDetections = new float[batchSize];
     }
 
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
+    Trace.beginSection("preprocessBitmap");
+    for (int b = 0; b < batchSize; ++b) {
+      final Bitmap bitmap = bitmaps.get(b);
+      intValues = ImageUtils.getPixels(bitmap, intValues);
+      preprocessor.toBytes(
+          intValues, bitmap.getWidth(), bitmap.getHeight(), batchByteValues, b * imageSize);
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
+    Trace.endSection(); // preprocessBitmap
+
+    Trace.beginSection("feed");
+    inferenceInterface.feed(inputName, batchByteValues, batchSize, inputSize, inputSize, 3);
+    Trace.endSection();
+
+    Trace.beginSection("run");
+    inferenceInterface.run(outputNames, logStats);
+    Trace.endSection();
+
+    Trace.beginSection("fetch");
+    inferenceInterface.fetch(outputNames[0], batchOutputLocations);
+    inferenceInterface.fetch(outputNames[1], batchOutputScores);
+    inferenceInterface.fetch(outputNames[2], batchOutputClasses);
+    inferenceInterface.fetch(outputNames[3], batchOutputNumDetections);
+    Trace.endSection();
+
+    final List<List<Recognition>> results = new ArrayList<List<Recognition>>(batchSize);
+    for (int b = 0; b < batchSize; ++b) {
+      decodeDetections(
+          batchOutputLocations,
+          batchOutputScores,
+          batchOutputClasses,
+          (int) batchOutputNumDetections[b],
+          b * MAX_RESULTS);
+      results.add(new ArrayList<Recognition>(detections.asRecognitions()));
+    }
+    Trace.endSection(); // "recognizeImages"
+    return results;
+  }
+
+  /**
+   * Writes the first {@code numDetections} detections starting at detection index {@code offset}
+   * of the fetched outputs to {@link #detections}, in input coordinates.
+   * <p>
+   * <p>The detection postprocessing op emits detections sorted by decreasing score, so decoding
+   * stops at the first one below {@code minimumConfidence} and the results need no re-ranking.
+   *
+   * @return {@link #detections}, which every call refills.
+   */
+  DetectionBuffer decodeDetections(
+      final float[] outputLocations,
+      final float[] outputScores,
+      final float[] outputClasses,
+      final int numDetections,
+      final int offset) {
+    final int count = Math.max(0, Math.min(numDetections, MAX_RESULTS));
+    detections.clear();
+    for (int i = 0; i < count; ++i) {
+      final int d = offset + i;
+      if (outputScores[d] < minimumConfidence) {
+        break;
+      }
+      // Scale it back to the input size.
+      final int classId = (int) outputClasses[d];
+      detections.add(
+          outputLocations[4 * d + 1] * inputSize,
+          outputLocations[4 * d] * inputSize,
+          outputLocations[4 * d + 3] * inputSize,
+          outputLocations[4 * d + 2] * inputSize,
+          outputScores[d],
+          classId,
+          labels.get(classId),
+          i);
+    }
+    return detections;
   }
 
   @Override
@@ -209,6 +312,26 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     this.logStats = logStats;
   }
 
+  @Override
+  public void enableParallelPreprocessing(final int minPixels) {
+    preprocessor.setParallelThreshold(minPixels);
+  }
+
+  @Override
+  public void setMinimumConfidence(final float minimumConfidence) {
+    this.minimumConfidence = minimumConfidence;
+  }
+
+  @Override
+  public LabelTable getLabels() {
+    return labels;
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+
   @Override
   public String getStatString() {
     return inferenceInterface.getStatString();
@@ -17,17 +17,17 @@ package com.google.ar.sceneform.samples.TensorFlow;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImagePreprocessor;
+import com.google.ar.sceneform.samples.TensorFlow.env.ImageUtils;
 import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
-import com.google.ar.sceneform.samples.TensorFlow.env.SplitTimer;
+import com.google.ar.sceneform.samples.TensorFlow.env.Normalizer;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
 
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.nio.FloatBuffer;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /** An object detector that uses TF and a YOLO model to detect objects. */
 public class TensorFlowYoloDetector implements Classifier {
@@ -36,214 +36,166 @@ public class TensorFlowYoloDetector implements Classifier {
   // Only return this many results with at least this confidence.
   private static final int MAX_RESULTS = 5;
 
-  private static final int NUM_CLASSES = 20;
-
-  private static final int NUM_BOXES_PER_BLOCK = 5;
-
-  // TODO(andrewharp): allow loading anchors and classes
-  // from files.
-  private static final double[] ANCHORS = {
-    1.08, 1.19,
-    3.42, 4.41,
-    6.63, 11.38,
-    9.42, 5.11,
-    16.62, 10.52
-  };
-
-  private static final String[] LABELS = {
-    "aeroplane",
-    "bicycle",
-    "bird",
-    "boat",
-    "bottle",
-    "bus",
-    "car",
-    "cat",
-    "chair",
-    "cow",
-    "diningtable",
-    "dog",
-    "horse",
-    "motorbike",
-    "person",
-    "pottedplant",
-    "sheep",
-    "sofa",
-    "train",
-    "tvmonitor"
-  };
+  // Boxes of the same class overlapping a better one by more than this are dropped.
+  private static final float NMS_IOU_THRESHOLD = 0.5f;
 
   // Config values.
   private String inputName;
   private int inputSize;
+  private YoloModelDescriptor descriptor;
 
   // Pre-allocated buffers.
   private int[] intValues;
-  private float[] floatValues;
+  // Direct, native-ordered model input written by the preprocessor and fed as is.
+  private FloatBuffer inputBuffer;
   private String[] outputNames;
+  private float[] output;
+  private YoloRegionDecoder decoder;
+  private int[] keep;
+  private final DetectionBuffer detections = new DetectionBuffer(MAX_RESULTS);
+  private ImagePreprocessor preprocessor;
+  private Normalizer normalizer;
 
-  private int blockSize;
+  private final NonMaxSuppression nms =
+      NonMaxSuppression.greedy(NMS_IOU_THRESHOLD).setClassAware(true).setMaxResults(MAX_RESULTS);
+
+  private float minimumConfidence;
 
   private boolean logStats = false;
 
   private TensorFlowInferenceInterface inferenceInterface;
 
-  /** Initializes a native TensorFlow session for classifying images. */
+  /**
+   * Initializes a native TensorFlow session for classifying images.
+   *
+   * @param descriptor The input size, grid layout, anchors and labels of the model, see
+   *     {@link YoloModelDescriptor#load}.
+   */
   public static Classifier create(
       final AssetManager assetManager,
       final String modelFilename,
-      final int inputSize,
+      final YoloModelDescriptor descriptor,
       final String inputName,
-      final String outputName,
-      final int blockSize) {
-    TensorFlowYoloDetector d = new TensorFlowYoloDetector();
+      final String outputName) {
+    final TensorFlowYoloDetector d = new TensorFlowYoloDetector(descriptor);
     d.inputName = inputName;
-    d.inputSize = inputSize;
-
-    // Pre-allocate buffers.
     d.outputNames = outputName.split(",");
-    d.intValues = new int[inputSize * inputSize];
-    d.floatValues = new float[inputSize * inputSize * 3];
-    d.blockSize = blockSize;
 
     d.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
 
     return d;
   }
 
-  private TensorFlowYoloDetector() {}
-
-  private float expit(final float x) {
-    return (float) (1. / (1. + Math.exp(-x)));
-  }
-
-  private void softmax(final float[] vals) {
-    float max = Float.NEGATIVE_INFINITY;
-    for (final float val : vals) {
-      max = Math.max(max, val);
-    }
-    float sum = 0.0f;
-    for (int i = 0; i < vals.length; ++i) {
-      vals[i] = (float) Math.exp(vals[i] - max);
-      sum += vals[i];
-    }
-    for (int i = 0; i < vals.length; ++i) {
-      vals[i] = vals[i] / sum;
-    }
+  /** Pre-allocates every buffer used per frame. The session is attached by {@link #create}. */
+  TensorFlowYoloDetector(final YoloModelDescriptor descriptor) {
+    this.descriptor = descriptor;
+    inputSize = descriptor.getInputSize();
+    intValues = new int[inputSize * inputSize];
+    decoder = new YoloRegionDecoder(descriptor);
+    output = new float[decoder.getOutputSize()];
+    keep = new int[MAX_RESULTS];
+    preprocessor = new ImagePreprocessor(inputSize, inputSize);
+    inputBuffer = preprocessor.allocateFloatBuffer();
+    normalizer = Normalizer.unitRange();
   }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
-    final SplitTimer timer = new SplitTimer("recognizeImage");
+    intValues = ImageUtils.getPixels(bitmap, intValues);
+    return recognizeImage(intValues, bitmap.getWidth(), bitmap.getHeight());
+  }
 
+  @Override
+  public DetectionBuffer detect(final int[] pixels, final int width, final int height) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
     Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data from 0-255 int to normalized float based
-    // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-    for (int i = 0; i < intValues.length; ++i) {
-      floatValues[i * 3 + 0] = ((intValues[i] >> 16) & 0xFF) / 255.0f;
-      floatValues[i * 3 + 1] = ((intValues[i] >> 8) & 0xFF) / 255.0f;
-      floatValues[i * 3 + 2] = (intValues[i] & 0xFF) / 255.0f;
-    }
+    preprocess(pixels, width, height);
     Trace.endSection(); // preprocessBitmap
 
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  @Override
+  public DetectionBuffer detect(final YuvFrame frame) {
+    // Log this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
+
+    Trace.beginSection("preprocessYuv");
+    preprocess(frame);
+    Trace.endSection(); // preprocessYuv
+
+    runModel();
+    Trace.endSection(); // "recognizeImage"
+    return detections;
+  }
+
+  /** Feeds the preprocessed input buffer to the session, runs it and decodes its outputs. */
+  private void runModel() {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    inferenceInterface.feed(inputName, floatValues, 1, inputSize, inputSize, 3);
+    inputBuffer.rewind();
+    inferenceInterface.feed(inputName, inputBuffer, 1, inputSize, inputSize, 3);
     Trace.endSection();
 
-    timer.endSplit("ready for inference");
-
     // Run the inference call.
     Trace.beginSection("run");
     inferenceInterface.run(outputNames, logStats);
     Trace.endSection();
 
-    timer.endSplit("ran inference");
-
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
-    final int gridWidth = bitmap.getWidth() / blockSize;
-    final int gridHeight = bitmap.getHeight() / blockSize;
-    final float[] output =
-        new float[gridWidth * gridHeight * (NUM_CLASSES + 5) * NUM_BOXES_PER_BLOCK];
     inferenceInterface.fetch(outputNames[0], output);
     Trace.endSection();
 
-    // Find the best detections.
-    final PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            1,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(final Recognition lhs, final Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    for (int y = 0; y < gridHeight; ++y) {
-      for (int x = 0; x < gridWidth; ++x) {
-        for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-          final int offset =
-              (gridWidth * (NUM_BOXES_PER_BLOCK * (NUM_CLASSES + 5))) * y
-                  + (NUM_BOXES_PER_BLOCK * (NUM_CLASSES + 5)) * x
-                  + (NUM_CLASSES + 5) * b;
-
-          final float xPos = (x + expit(output[offset + 0])) * blockSize;
-          final float yPos = (y + expit(output[offset + 1])) * blockSize;
-
-          final float w = (float) (Math.exp(output[offset + 2]) * ANCHORS[2 * b + 0]) * blockSize;
-          final float h = (float) (Math.exp(output[offset + 3]) * ANCHORS[2 * b + 1]) * blockSize;
-
-          final RectF rect =
-              new RectF(
-                  Math.max(0, xPos - w / 2),
-                  Math.max(0, yPos - h / 2),
-                  Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                  Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-          final float confidence = expit(output[offset + 4]);
-
-          int detectedClass = -1;
-          float maxClass = 0;
-
-          final float[] classes = new float[NUM_CLASSES];
-          for (int c = 0; c < NUM_CLASSES; ++c) {
-            classes[c] = output[offset + 5 + c];
-          }
-          softmax(classes);
-
-          for (int c = 0; c < NUM_CLASSES; ++c) {
-            if (classes[c] > maxClass) {
-              detectedClass = c;
-              maxClass = classes[c];
-            }
-          }
-
-          final float confidenceInClass = maxClass * confidence;
-          if (confidenceInClass > 0.01) {
-            LOGGER.i(
-                "%s (%d) %f %s", LABELS[detectedClass], detectedClass, confidenceInClass, rect);
-            pq.add(new Recognition("" + offset, LABELS[detectedClass], confidenceInClass, rect));
-          }
-        }
-      }
-    }
-    timer.endSplit("decoded results");
+    Trace.beginSection("decode");
+    decodeDetections(output);
+    Trace.endSection(); // decode
+  }
 
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
-    }
-    Trace.endSection(); // "recognizeImage"
+  /** Resizes the pixels and normalizes them from 0-255 ints to floats in [0, 1]. */
+  void preprocess(final int[] pixels, final int width, final int height) {
+    preprocessor.toFloats(pixels, width, height, inputBuffer, normalizer);
+  }
 
-    timer.endSplit("processed results");
+  /** Like {@link #preprocess(int[], int, int)}, for the upright crop of a YUV frame. */
+  void preprocess(final YuvFrame frame) {
+    preprocessor.toFloats(frame, inputBuffer, normalizer);
+  }
 
-    return recognitions;
+  /**
+   * Decodes the fetched region layer output, suppresses overlapping boxes of the same class and
+   * writes the best to {@link #detections}, in input coordinates.
+   *
+   * @return {@link #detections}, which every call refills.
+   */
+  DetectionBuffer decodeDetections(final float[] output) {
+    // Find the best detections.
+    final float threshold = Math.max(0.01f, minimumConfidence);
+    final int count = decoder.decode(output, threshold);
+    final float[] boxes = decoder.getBoxes();
+    final float[] scores = decoder.getScores();
+    final int[] classIds = decoder.getClassIds();
+    final int[] offsets = decoder.getOffsets();
+    final int numKept = nms.apply(boxes, scores, classIds, count, threshold, keep);
+
+    detections.clear();
+    for (int k = 0; k < numKept; ++k) {
+      final int i = keep[k];
+      detections.add(
+          boxes[4 * i],
+          boxes[4 * i + 1],
+          boxes[4 * i + 2],
+          boxes[4 * i + 3],
+          scores[i],
+          classIds[i],
+          descriptor.getLabels().get(classIds[i]),
+          offsets[i]);
+    }
+    return detections;
   }
 
   @Override
@@ -251,6 +203,26 @@ public class TensorFlowYoloDetector implements Classifier {
     this.logStats = logStats;
   }
 
+  @Override
+  public void enableParallelPreprocessing(final int minPixels) {
+    preprocessor.setParallelThreshold(minPixels);
+  }
+
+  @Override
+  public void setMinimumConfidence(final float minimumConfidence) {
+    this.minimumConfidence = minimumConfidence;
+  }
+
+  @Override
+  public LabelTable getLabels() {
+    return descriptor.getLabels();
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+
   @Override
   public String getStatString() {
     return inferenceInterface.getStatString();
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the layout of a YOLO v2 model's region output: input and grid size, anchor boxes and
+ * class labels. Loaded from a {@code key=value} asset file, so that YOLO variants can be swapped
+ * without code changes. See {@code assets/tiny-yolo-voc.txt} for the format.
+ */
+public final class YoloModelDescriptor {
+  private final int inputSize;
+  private final int blockSize;
+  private final int gridSize;
+  private final int boxesPerBlock;
+  private final double[] anchors;
+  private final LabelTable labels;
+
+  YoloModelDescriptor(
+      final int inputSize,
+      final int blockSize,
+      final int gridSize,
+      final int boxesPerBlock,
+      final double[] anchors,
+      final LabelTable labels) {
+    this.inputSize = inputSize;
+    this.blockSize = blockSize;
+    this.gridSize = gridSize;
+    this.boxesPerBlock = boxesPerBlock;
+    this.anchors = anchors;
+    this.labels = labels;
+  }
+
+  /**
+   * Loads a descriptor from the assets. The labels file it names is resolved relative to the
+   * asset root.
+   *
+   * @param filename The descriptor, either an asset path or a file:///android_asset/ URI.
+   */
+  public static YoloModelDescriptor load(final AssetManager assetManager, final String filename)
+      throws IOException {
+    final Map<String, String> values = new HashMap<String, String>();
+    for (final String line : AssetFiles.readLines(assetManager, filename)) {
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      final int separator = trimmed.indexOf('=');
+      if (separator <= 0) {
+        throw new IOException("Malformed line in " + filename + ": " + line);
+      }
+      values.put(trimmed.substring(0, separator).trim(), trimmed.substring(separator + 1).trim());
+    }
+
+    final int inputSize = parseInt(values, "input_size", filename);
+    final int blockSize = parseInt(values, "block_size", filename);
+    final int boxesPerBlock = parseInt(values, "boxes_per_block", filename);
+    final int gridSize =
+        values.containsKey("grid_size")
+            ? parseInt(values, "grid_size", filename)
+            : inputSize / blockSize;
+
+    final String[] anchorValues = require(values, "anchors", filename).split(",");
+    if (anchorValues.length != 2 * boxesPerBlock) {
+      throw new IOException(
+          filename + ": expected " + 2 * boxesPerBlock + " anchor values, got "
+              + anchorValues.length);
+    }
+    final double[] anchors = new double[anchorValues.length];
+    for (int i = 0; i < anchors.length; ++i) {
+      try {
+        anchors[i] = Double.parseDouble(anchorValues[i].trim());
+      } catch (final NumberFormatException e) {
+        throw new IOException(filename + ": bad anchor value '" + anchorValues[i] + "'");
+      }
+    }
+
+    final List<String> labels = new ArrayList<String>();
+    for (final String line :
+        AssetFiles.readLines(assetManager, require(values, "labels", filename))) {
+      if (!line.trim().isEmpty()) {
+        labels.add(line.trim());
+      }
+    }
+    if (labels.isEmpty()) {
+      throw new IOException(filename + ": no labels");
+    }
+
+    return new YoloModelDescriptor(
+        inputSize,
+        blockSize,
+        gridSize,
+        boxesPerBlock,
+        anchors,
+        LabelTable.of(labels));
+  }
+
+  public int getInputSize() {
+    return inputSize;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /** Returns the number of cells along each side of the square output grid. */
+  public int getGridSize() {
+    return gridSize;
+  }
+
+  public int getBoxesPerBlock() {
+    return boxesPerBlock;
+  }
+
+  public int getNumClasses() {
+    return labels.size();
+  }
+
+  /** Returns the labels, indexed by class id. */
+  public LabelTable getLabels() {
+    return labels;
+  }
+
+  /** Returns the width and height of each anchor box in grid cells, interleaved. */
+  public double[] getAnchors() {
+    return anchors.clone();
+  }
+
+  private static String require(
+      final Map<String, String> values, final String key, final String filename)
+      throws IOException {
+    final String value = values.get(key);
+    if (value == null || value.isEmpty()) {
+      throw new IOException(filename + ": missing '" + key + "'");
+    }
+    return value;
+  }
+
+  private static int parseInt(
+      final Map<String, String> values, final String key, final String filename)
+      throws IOException {
+    final String value = require(values, key, filename);
+    final int parsed;
+    try {
+      parsed = Integer.parseInt(value);
+    } catch (final NumberFormatException e) {
+      throw new IOException(filename + ": bad value for '" + key + "': " + value);
+    }
+    if (parsed <= 0) {
+      throw new IOException(filename + ": '" + key + "' must be positive: " + value);
+    }
+    return parsed;
+  }
+}
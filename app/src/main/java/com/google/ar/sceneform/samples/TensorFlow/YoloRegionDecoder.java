@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.FastMath;
+
+/**
+ * Decodes the raw output of a YOLO v2 region layer, laid out as
+ * [gridSize][gridSize][boxesPerBlock][5 + numClasses], into candidate boxes in input
+ * coordinates. Cell positions and anchor sizes are tabulated per box slot from the
+ * {@link YoloModelDescriptor} up front, so decoding walks the output linearly.
+ * <p>
+ * <p>The output array is read in place. Objectness is checked first, against the threshold in
+ * logit space, and boxes that cannot reach the threshold skip the class softmax and box decode
+ * entirely. For the rest only the probability of the best class is computed, which needs one exp
+ * per class and no scratch array. Exponentials use {@link FastMath}.
+ * <p>
+ * <p>Candidates are written to arrays owned by the decoder, which are overwritten by the next
+ * call. Instances are not thread-safe.
+ */
+final class YoloRegionDecoder {
+  private final int numSlots;
+  private final int numClasses;
+  private final float blockSize;
+  private final float maxCoordinate;
+
+  // Per box slot, in output order: the input coordinates of the slot's cell and half the size of
+  // its anchor box in input pixels.
+  private final float[] cellLeft;
+  private final float[] cellTop;
+  private final float[] anchorHalfWidth;
+  private final float[] anchorHalfHeight;
+
+  // Left, top, right and bottom of each candidate.
+  private final float[] boxes;
+  private final float[] scores;
+  private final int[] classIds;
+  // Offset of each candidate's entry in the output array, a stable id for the box.
+  private final int[] offsets;
+
+  YoloRegionDecoder(final YoloModelDescriptor descriptor) {
+    final int gridSize = descriptor.getGridSize();
+    final int boxesPerBlock = descriptor.getBoxesPerBlock();
+    final double[] anchors = descriptor.getAnchors();
+    numSlots = gridSize * gridSize * boxesPerBlock;
+    numClasses = descriptor.getNumClasses();
+    blockSize = descriptor.getBlockSize();
+    maxCoordinate = descriptor.getInputSize() - 1;
+
+    cellLeft = new float[numSlots];
+    cellTop = new float[numSlots];
+    anchorHalfWidth = new float[numSlots];
+    anchorHalfHeight = new float[numSlots];
+    int slot = 0;
+    for (int y = 0; y < gridSize; ++y) {
+      for (int x = 0; x < gridSize; ++x) {
+        for (int b = 0; b < boxesPerBlock; ++b, ++slot) {
+          cellLeft[slot] = x * blockSize;
+          cellTop[slot] = y * blockSize;
+          anchorHalfWidth[slot] = (float) (anchors[2 * b] * blockSize / 2);
+          anchorHalfHeight[slot] = (float) (anchors[2 * b + 1] * blockSize / 2);
+        }
+      }
+    }
+
+    boxes = new float[numSlots * 4];
+    scores = new float[numSlots];
+    classIds = new int[numSlots];
+    offsets = new int[numSlots];
+  }
+
+  /** Returns the number of floats in the region layer output. */
+  int getOutputSize() {
+    return numSlots * (numClasses + 5);
+  }
+
+  /**
+   * Decodes every box whose best class confidence exceeds {@code threshold} and returns the
+   * number of candidates written.
+   */
+  int decode(final float[] output, final float threshold) {
+    final int stride = numClasses + 5;
+    final float objectnessLogit = FastMath.logit(threshold);
+
+    int count = 0;
+    for (int slot = 0, offset = 0; slot < numSlots; ++slot, offset += stride) {
+      // Class probabilities are at most 1, so the box cannot pass on a weaker objectness.
+      if (output[offset + 4] <= objectnessLogit) {
+        continue;
+      }
+
+      final int classStart = offset + 5;
+      int detectedClass = 0;
+      float maxLogit = output[classStart];
+      for (int c = 1; c < numClasses; ++c) {
+        if (output[classStart + c] > maxLogit) {
+          maxLogit = output[classStart + c];
+          detectedClass = c;
+        }
+      }
+      // The softmax of the best class is 1 / sum(exp(logit - maxLogit)).
+      float sum = 0.0f;
+      for (int c = 0; c < numClasses; ++c) {
+        sum += FastMath.exp(output[classStart + c] - maxLogit);
+      }
+
+      final float confidenceInClass = FastMath.sigmoid(output[offset + 4]) / sum;
+      if (confidenceInClass <= threshold) {
+        continue;
+      }
+
+      final float xPos = cellLeft[slot] + FastMath.sigmoid(output[offset]) * blockSize;
+      final float yPos = cellTop[slot] + FastMath.sigmoid(output[offset + 1]) * blockSize;
+      final float halfW = FastMath.exp(output[offset + 2]) * anchorHalfWidth[slot];
+      final float halfH = FastMath.exp(output[offset + 3]) * anchorHalfHeight[slot];
+
+      boxes[4 * count] = Math.max(0, xPos - halfW);
+      boxes[4 * count + 1] = Math.max(0, yPos - halfH);
+      boxes[4 * count + 2] = Math.min(maxCoordinate, xPos + halfW);
+      boxes[4 * count + 3] = Math.min(maxCoordinate, yPos + halfH);
+      scores[count] = confidenceInClass;
+      classIds[count] = detectedClass;
+      offsets[count] = offset;
+      ++count;
+    }
+    return count;
+  }
+
+  float[] getBoxes() {
+    return boxes;
+  }
+
+  float[] getScores() {
+    return scores;
+  }
+
+  int[] getClassIds() {
+    return classIds;
+  }
+
+  int[] getOffsets() {
+    return offsets;
+  }
+}
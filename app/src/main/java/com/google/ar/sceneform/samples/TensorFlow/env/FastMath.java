@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+/**
+ * Single-precision approximations of exponential functions for decoding model outputs, where
+ * {@link Math#exp} in double precision dominates the per-box cost.
+ */
+public final class FastMath {
+  private static final float LOG2E = 1.44269504f;
+
+  // ln(2) split into a part exact in float and a small remainder, for an accurate reduction.
+  private static final float LN2_HI = 0.693145751953125f;
+  private static final float LN2_LO = 1.42860677e-6f;
+
+  // Beyond these bounds exp() under- or overflows a float.
+  private static final float MIN_ARG = -87.0f;
+  private static final float MAX_ARG = 88.0f;
+
+  private FastMath() {}
+
+  /**
+   * Returns e^x with a relative error below 4e-6 for x in [-87, 88]. Arguments outside that range
+   * are clamped to it.
+   */
+  public static float exp(float x) {
+    x = Math.max(MIN_ARG, Math.min(MAX_ARG, x));
+    // e^x = 2^n * e^r with |r| <= ln(2) / 2.
+    final int n = Math.round(x * LOG2E);
+    final float r = (x - n * LN2_HI) - n * LN2_LO;
+    // Degree 5 Taylor expansion of e^r.
+    final float p =
+        1.0f + r * (1.0f + r * (0.5f + r * (1.0f / 6 + r * (1.0f / 24 + r * (1.0f / 120)))));
+    return p * Float.intBitsToFloat((n + 127) << 23);
+  }
+
+  /** Returns the logistic function 1 / (1 + e^-x). */
+  public static float sigmoid(final float x) {
+    return 1.0f / (1.0f + exp(-x));
+  }
+
+  /**
+   * Returns the inverse of {@link #sigmoid}, i.e. the smallest input whose sigmoid reaches
+   * {@code p}, for comparing against raw logits without evaluating the sigmoid.
+   */
+  public static float logit(final float p) {
+    return (float) Math.log(p / (1.0 - p));
+  }
+}
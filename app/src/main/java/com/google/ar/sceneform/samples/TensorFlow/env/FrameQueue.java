@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded hand-off queue between two pipeline stages. When the queue is full the oldest frame
+ * is dropped in favour of the newest one, so a slow consumer always sees the most recent frame.
+ */
+public class FrameQueue<T> {
+  /** Notified for every frame that is discarded without being taken. */
+  public interface OnDropListener<T> {
+    void onDrop(T frame);
+  }
+
+  private final ArrayDeque<T> frames;
+  private final int capacity;
+  private final OnDropListener<T> onDropListener;
+
+  private long droppedCount;
+  private boolean closed;
+
+  public FrameQueue(final int capacity, final OnDropListener<T> onDropListener) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    this.onDropListener = onDropListener;
+    this.frames = new ArrayDeque<T>(capacity);
+  }
+
+  /**
+   * Adds a frame, dropping the oldest queued frame if the queue is full. Frames offered after
+   * {@link #close()} are dropped immediately.
+   */
+  public synchronized void offer(final T frame) {
+    if (closed) {
+      drop(frame);
+      return;
+    }
+    while (frames.size() >= capacity) {
+      drop(frames.poll());
+    }
+    frames.add(frame);
+    notifyAll();
+  }
+
+  /**
+   * Blocks until a frame is available and returns it, or returns null once the queue has been
+   * closed.
+   */
+  public synchronized T take() throws InterruptedException {
+    while (frames.isEmpty() && !closed) {
+      wait();
+    }
+    return frames.poll();
+  }
+
+  /** Drops every queued frame and wakes up any thread blocked in {@link #take()}. */
+  public synchronized void close() {
+    closed = true;
+    while (!frames.isEmpty()) {
+      drop(frames.poll());
+    }
+    notifyAll();
+  }
+
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  private void drop(final T frame) {
+    ++droppedCount;
+    if (onDropListener != null) {
+      onDropListener.onDrop(frame);
+    }
+  }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resizes an ARGB_8888 pixel buffer to the model input size and writes it out as an interleaved
+ * RGB tensor in a single pass, without an intermediate Bitmap. Sampling is nearest-neighbour,
+ * matching an unfiltered Matrix scale.
+ * <p>
+ * <p>A {@link YuvFrame} is cropped, rotated and resized in the same pass: only the pixels sampled
+ * for the output are converted to RGB, straight from the planes, rather than converting the
+ * whole frame to ARGB first. The output equals converting the whole frame with the Java
+ * conversion in {@link ImageUtils}, then cropping, rotating and resizing it.
+ * <p>
+ * <p>The destination may be a Java array or a direct buffer from {@link #allocateFloatBuffer} or
+ * {@link #allocateByteBuffer}, which can be handed to the inference layer without staging the
+ * tensor on the Java heap first. Buffers are written with absolute puts and their position is
+ * left untouched.
+ * <p>
+ * <p>Instances cache the source row and column lookup for the last source size seen and are not
+ * thread-safe. Outputs of at least {@link #setParallelThreshold parallelThreshold} pixels are
+ * split into row stripes and converted on a fork-join pool shared by all instances.
+ */
+public class ImagePreprocessor {
+  static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  // Also used by YuvToArgbConverter, so that image work shares one set of threads.
+  static final ForkJoinPool POOL = new ForkJoinPool(NUM_THREADS);
+
+  // Stripes smaller than this are not worth the hand-off to another thread.
+  private static final int MIN_ROWS_PER_STRIPE = 16;
+
+  private final int dstWidth;
+  private final int dstHeight;
+
+  // Source column and row offsets for every destination column and row.
+  private final int[] srcColumns;
+  private final int[] srcRowOffsets;
+  private int srcWidth = -1;
+  private int srcHeight = -1;
+
+  // Luma and chroma sample indices for every destination row and column of a YUV frame. The index
+  // of a sample is the sum of its row's and its column's offsets, whatever the rotation.
+  private final int[] lumaRowOffsets;
+  private final int[] chromaRowOffsets;
+  private final int[] lumaColumnOffsets;
+  private final int[] chromaColumnOffsets;
+  // The YUV frame layout the offsets were computed for.
+  private int yuvCropLeft;
+  private int yuvCropTop;
+  private int yuvCropWidth = -1;
+  private int yuvCropHeight = -1;
+  private int yuvRotation;
+  private int yuvRowStride;
+  private int yuvUvRowStride;
+  private int yuvUvPixelStride;
+
+  private int parallelThreshold = Integer.MAX_VALUE;
+
+  public ImagePreprocessor(final int dstWidth, final int dstHeight) {
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+    this.srcColumns = new int[dstWidth];
+    this.srcRowOffsets = new int[dstHeight];
+    this.lumaRowOffsets = new int[dstHeight];
+    this.chromaRowOffsets = new int[dstHeight];
+    this.lumaColumnOffsets = new int[dstWidth];
+    this.chromaColumnOffsets = new int[dstWidth];
+  }
+
+  /** Allocates a native-ordered direct buffer holding one float tensor of the output size. */
+  public FloatBuffer allocateFloatBuffer() {
+    return ByteBuffer.allocateDirect(dstWidth * dstHeight * 3 * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  /** Allocates a direct buffer holding one byte tensor of the output size. */
+  public ByteBuffer allocateByteBuffer() {
+    return ByteBuffer.allocateDirect(dstWidth * dstHeight * 3).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Enables row-striped parallel conversion for outputs of at least {@code minPixels} pixels.
+   * Pass {@link Integer#MAX_VALUE} to always run serially, which is the default.
+   */
+  public void setParallelThreshold(final int minPixels) {
+    parallelThreshold = minPixels;
+  }
+
+  /**
+   * Writes each channel of each resized pixel, mapped through {@code normalizer}, into
+   * {@code dst}, which must hold at least {@code dstWidth * dstHeight * 3} values.
+   */
+  public void toFloats(
+      final int[] src,
+      final int srcWidth,
+      final int srcHeight,
+      final float[] dst,
+      final Normalizer normalizer) {
+    toFloats(src, srcWidth, srcHeight, dst, 0, normalizer);
+  }
+
+  /**
+   * Like {@link #toFloats(int[], int, int, float[], Normalizer)}, but starts writing at
+   * {@code dstOffset}, e.g. to fill one image of a batch.
+   */
+  public void toFloats(
+      final int[] src,
+      final int srcWidth,
+      final int srcHeight,
+      final float[] dst,
+      final int dstOffset,
+      final Normalizer normalizer) {
+    convert(src, srcWidth, srcHeight, dst, dstOffset, normalizer.table);
+  }
+
+  /** Like {@link #toFloats(int[], int, int, float[], Normalizer)}, writing into a buffer. */
+  public void toFloats(
+      final int[] src,
+      final int srcWidth,
+      final int srcHeight,
+      final FloatBuffer dst,
+      final Normalizer normalizer) {
+    convert(src, srcWidth, srcHeight, dst, 0, normalizer.table);
+  }
+
+  /**
+   * Writes the raw R, G and B bytes of each resized pixel into {@code dst}, which must hold at
+   * least {@code dstWidth * dstHeight * 3} values.
+   */
+  public void toBytes(final int[] src, final int srcWidth, final int srcHeight, final byte[] dst) {
+    toBytes(src, srcWidth, srcHeight, dst, 0);
+  }
+
+  /**
+   * Like {@link #toBytes(int[], int, int, byte[])}, but starts writing at {@code dstOffset}, e.g.
+   * to fill one image of a batch.
+   */
+  public void toBytes(
+      final int[] src,
+      final int srcWidth,
+      final int srcHeight,
+      final byte[] dst,
+      final int dstOffset) {
+    convert(src, srcWidth, srcHeight, dst, dstOffset, null);
+  }
+
+  /** Like {@link #toBytes(int[], int, int, byte[])}, writing into a buffer. */
+  public void toBytes(
+      final int[] src, final int srcWidth, final int srcHeight, final ByteBuffer dst) {
+    convert(src, srcWidth, srcHeight, dst, 0, null);
+  }
+
+  /**
+   * Writes each channel of each pixel of the frame's crop, rotated upright and resized, mapped
+   * through {@code normalizer}, into {@code dst}, which must hold at least
+   * {@code dstWidth * dstHeight * 3} values.
+   */
+  public void toFloats(final YuvFrame src, final float[] dst, final Normalizer normalizer) {
+    toFloats(src, dst, 0, normalizer);
+  }
+
+  /**
+   * Like {@link #toFloats(YuvFrame, float[], Normalizer)}, but starts writing at
+   * {@code dstOffset}, e.g. to fill one image of a batch.
+   */
+  public void toFloats(
+      final YuvFrame src, final float[] dst, final int dstOffset, final Normalizer normalizer) {
+    convert(src, dst, dstOffset, normalizer.table);
+  }
+
+  /** Like {@link #toFloats(YuvFrame, float[], Normalizer)}, writing into a buffer. */
+  public void toFloats(final YuvFrame src, final FloatBuffer dst, final Normalizer normalizer) {
+    convert(src, dst, 0, normalizer.table);
+  }
+
+  /**
+   * Writes the R, G and B bytes of each pixel of the frame's crop, rotated upright and resized,
+   * into {@code dst}, which must hold at least {@code dstWidth * dstHeight * 3} values.
+   */
+  public void toBytes(final YuvFrame src, final byte[] dst) {
+    toBytes(src, dst, 0);
+  }
+
+  /**
+   * Like {@link #toBytes(YuvFrame, byte[])}, but starts writing at {@code dstOffset}, e.g. to
+   * fill one image of a batch.
+   */
+  public void toBytes(final YuvFrame src, final byte[] dst, final int dstOffset) {
+    convert(src, dst, dstOffset, null);
+  }
+
+  /** Like {@link #toBytes(YuvFrame, byte[])}, writing into a buffer. */
+  public void toBytes(final YuvFrame src, final ByteBuffer dst) {
+    convert(src, dst, 0, null);
+  }
+
+  private void convert(
+      final int[] src,
+      final int srcWidth,
+      final int srcHeight,
+      final Object dst,
+      final int dstOffset,
+      final float[] lut) {
+    prepare(srcWidth, srcHeight);
+    convert((Object) src, dst, dstOffset, lut);
+  }
+
+  private void convert(
+      final YuvFrame src, final Object dst, final int dstOffset, final float[] lut) {
+    prepare(src);
+    convert((Object) src, dst, dstOffset, lut);
+  }
+
+  /** Converts an ARGB {@code int[]} or a {@link YuvFrame} once its lookup is prepared. */
+  private void convert(
+      final Object src, final Object dst, final int dstOffset, final float[] lut) {
+    if (isParallel()) {
+      POOL.invoke(new Stripe(src, dst, dstOffset, lut, 0, dstHeight, stripeRows()));
+    } else {
+      convertRows(src, dst, dstOffset, lut, 0, dstHeight);
+    }
+  }
+
+  private void convertRows(
+      final Object src,
+      final Object dst,
+      final int dstOffset,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    if (src instanceof YuvFrame) {
+      convertYuvRows((YuvFrame) src, dst, dstOffset, lut, yStart, yEnd);
+    } else {
+      convertArgbRows((int[]) src, dst, dstOffset, lut, yStart, yEnd);
+    }
+  }
+
+  private void convertArgbRows(
+      final int[] src,
+      final Object dst,
+      final int dstOffset,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    final int out = dstOffset + yStart * dstWidth * 3;
+    if (dst instanceof float[]) {
+      floatRows(src, (float[]) dst, out, lut, yStart, yEnd);
+    } else if (dst instanceof FloatBuffer) {
+      floatBufferRows(src, (FloatBuffer) dst, out, lut, yStart, yEnd);
+    } else if (dst instanceof byte[]) {
+      byteRows(src, (byte[]) dst, out, yStart, yEnd);
+    } else {
+      byteBufferRows(src, (ByteBuffer) dst, out, yStart, yEnd);
+    }
+  }
+
+  private void floatRows(
+      final int[] src,
+      final float[] dst,
+      int out,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    for (int y = yStart; y < yEnd; ++y) {
+      final int rowOffset = srcRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int val = src[rowOffset + srcColumns[x]];
+        dst[out++] = lut[(val >> 16) & 0xFF];
+        dst[out++] = lut[(val >> 8) & 0xFF];
+        dst[out++] = lut[val & 0xFF];
+      }
+    }
+  }
+
+  private void floatBufferRows(
+      final int[] src,
+      final FloatBuffer dst,
+      int out,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    for (int y = yStart; y < yEnd; ++y) {
+      final int rowOffset = srcRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int val = src[rowOffset + srcColumns[x]];
+        dst.put(out++, lut[(val >> 16) & 0xFF]);
+        dst.put(out++, lut[(val >> 8) & 0xFF]);
+        dst.put(out++, lut[val & 0xFF]);
+      }
+    }
+  }
+
+  private void byteRows(
+      final int[] src, final byte[] dst, int out, final int yStart, final int yEnd) {
+    for (int y = yStart; y < yEnd; ++y) {
+      final int rowOffset = srcRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int val = src[rowOffset + srcColumns[x]];
+        dst[out++] = (byte) ((val >> 16) & 0xFF);
+        dst[out++] = (byte) ((val >> 8) & 0xFF);
+        dst[out++] = (byte) (val & 0xFF);
+      }
+    }
+  }
+
+  private void byteBufferRows(
+      final int[] src, final ByteBuffer dst, int out, final int yStart, final int yEnd) {
+    for (int y = yStart; y < yEnd; ++y) {
+      final int rowOffset = srcRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int val = src[rowOffset + srcColumns[x]];
+        dst.put(out++, (byte) ((val >> 16) & 0xFF));
+        dst.put(out++, (byte) ((val >> 8) & 0xFF));
+        dst.put(out++, (byte) (val & 0xFF));
+      }
+    }
+  }
+
+  private void convertYuvRows(
+      final YuvFrame src,
+      final Object dst,
+      final int dstOffset,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    final int out = dstOffset + yStart * dstWidth * 3;
+    if (dst instanceof float[]) {
+      yuvFloatRows(src, (float[]) dst, out, lut, yStart, yEnd);
+    } else if (dst instanceof FloatBuffer) {
+      yuvFloatBufferRows(src, (FloatBuffer) dst, out, lut, yStart, yEnd);
+    } else if (dst instanceof byte[]) {
+      yuvByteRows(src, (byte[]) dst, out, yStart, yEnd);
+    } else {
+      yuvByteBufferRows(src, (ByteBuffer) dst, out, yStart, yEnd);
+    }
+  }
+
+  private void yuvFloatRows(
+      final YuvFrame src,
+      final float[] dst,
+      int out,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    final ByteBuffer yPlane = src.yPlane;
+    final ByteBuffer uPlane = src.uPlane;
+    final ByteBuffer vPlane = src.vPlane;
+    for (int y = yStart; y < yEnd; ++y) {
+      final int lumaRow = lumaRowOffsets[y];
+      final int chromaRow = chromaRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int chroma = chromaRow + chromaColumnOffsets[x];
+        final int val =
+            YuvToArgbConverter.toArgb(
+                yPlane.get(lumaRow + lumaColumnOffsets[x]), uPlane.get(chroma), vPlane.get(chroma));
+        dst[out++] = lut[(val >> 16) & 0xFF];
+        dst[out++] = lut[(val >> 8) & 0xFF];
+        dst[out++] = lut[val & 0xFF];
+      }
+    }
+  }
+
+  private void yuvFloatBufferRows(
+      final YuvFrame src,
+      final FloatBuffer dst,
+      int out,
+      final float[] lut,
+      final int yStart,
+      final int yEnd) {
+    final ByteBuffer yPlane = src.yPlane;
+    final ByteBuffer uPlane = src.uPlane;
+    final ByteBuffer vPlane = src.vPlane;
+    for (int y = yStart; y < yEnd; ++y) {
+      final int lumaRow = lumaRowOffsets[y];
+      final int chromaRow = chromaRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int chroma = chromaRow + chromaColumnOffsets[x];
+        final int val =
+            YuvToArgbConverter.toArgb(
+                yPlane.get(lumaRow + lumaColumnOffsets[x]), uPlane.get(chroma), vPlane.get(chroma));
+        dst.put(out++, lut[(val >> 16) & 0xFF]);
+        dst.put(out++, lut[(val >> 8) & 0xFF]);
+        dst.put(out++, lut[val & 0xFF]);
+      }
+    }
+  }
+
+  private void yuvByteRows(
+      final YuvFrame src, final byte[] dst, int out, final int yStart, final int yEnd) {
+    final ByteBuffer yPlane = src.yPlane;
+    final ByteBuffer uPlane = src.uPlane;
+    final ByteBuffer vPlane = src.vPlane;
+    for (int y = yStart; y < yEnd; ++y) {
+      final int lumaRow = lumaRowOffsets[y];
+      final int chromaRow = chromaRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int chroma = chromaRow + chromaColumnOffsets[x];
+        final int val =
+            YuvToArgbConverter.toArgb(
+                yPlane.get(lumaRow + lumaColumnOffsets[x]), uPlane.get(chroma), vPlane.get(chroma));
+        dst[out++] = (byte) ((val >> 16) & 0xFF);
+        dst[out++] = (byte) ((val >> 8) & 0xFF);
+        dst[out++] = (byte) (val & 0xFF);
+      }
+    }
+  }
+
+  private void yuvByteBufferRows(
+      final YuvFrame src, final ByteBuffer dst, int out, final int yStart, final int yEnd) {
+    final ByteBuffer yPlane = src.yPlane;
+    final ByteBuffer uPlane = src.uPlane;
+    final ByteBuffer vPlane = src.vPlane;
+    for (int y = yStart; y < yEnd; ++y) {
+      final int lumaRow = lumaRowOffsets[y];
+      final int chromaRow = chromaRowOffsets[y];
+      for (int x = 0; x < dstWidth; ++x) {
+        final int chroma = chromaRow + chromaColumnOffsets[x];
+        final int val =
+            YuvToArgbConverter.toArgb(
+                yPlane.get(lumaRow + lumaColumnOffsets[x]), uPlane.get(chroma), vPlane.get(chroma));
+        dst.put(out++, (byte) ((val >> 16) & 0xFF));
+        dst.put(out++, (byte) ((val >> 8) & 0xFF));
+        dst.put(out++, (byte) (val & 0xFF));
+      }
+    }
+  }
+
+  private boolean isParallel() {
+    return NUM_THREADS > 1 && dstWidth * dstHeight >= parallelThreshold;
+  }
+
+  private int stripeRows() {
+    return Math.max(MIN_ROWS_PER_STRIPE, (dstHeight + NUM_THREADS - 1) / NUM_THREADS);
+  }
+
+  private final class Stripe extends RecursiveAction {
+    private final Object src;
+    private final Object dst;
+    private final int dstOffset;
+    private final float[] lut;
+    private final int yStart;
+    private final int yEnd;
+    private final int stripeRows;
+
+    Stripe(
+        final Object src,
+        final Object dst,
+        final int dstOffset,
+        final float[] lut,
+        final int yStart,
+        final int yEnd,
+        final int stripeRows) {
+      this.src = src;
+      this.dst = dst;
+      this.dstOffset = dstOffset;
+      this.lut = lut;
+      this.yStart = yStart;
+      this.yEnd = yEnd;
+      this.stripeRows = stripeRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (yEnd - yStart <= stripeRows) {
+        convertRows(src, dst, dstOffset, lut, yStart, yEnd);
+        return;
+      }
+      final int yMid = (yStart + yEnd) >>> 1;
+      invokeAll(
+          new Stripe(src, dst, dstOffset, lut, yStart, yMid, stripeRows),
+          new Stripe(src, dst, dstOffset, lut, yMid, yEnd, stripeRows));
+    }
+  }
+
+  private void prepare(final int srcWidth, final int srcHeight) {
+    if (srcWidth == this.srcWidth && srcHeight == this.srcHeight) {
+      return;
+    }
+    // Sample at the centre of each destination pixel: floor((x + 0.5) * src / dst).
+    for (int x = 0; x < dstWidth; ++x) {
+      srcColumns[x] = (int) (((2L * x + 1) * srcWidth) / (2L * dstWidth));
+    }
+    for (int y = 0; y < dstHeight; ++y) {
+      srcRowOffsets[y] = (int) (((2L * y + 1) * srcHeight) / (2L * dstHeight)) * srcWidth;
+    }
+    this.srcWidth = srcWidth;
+    this.srcHeight = srcHeight;
+  }
+
+  private void prepare(final YuvFrame src) {
+    if (src.cropLeft == yuvCropLeft
+        && src.cropTop == yuvCropTop
+        && src.cropWidth == yuvCropWidth
+        && src.cropHeight == yuvCropHeight
+        && src.rotation == yuvRotation
+        && src.yRowStride == yuvRowStride
+        && src.uvRowStride == yuvUvRowStride
+        && src.uvPixelStride == yuvUvPixelStride) {
+      return;
+    }
+    yuvCropLeft = src.cropLeft;
+    yuvCropTop = src.cropTop;
+    yuvCropWidth = src.cropWidth;
+    yuvCropHeight = src.cropHeight;
+    yuvRotation = src.rotation;
+    yuvRowStride = src.yRowStride;
+    yuvUvRowStride = src.uvRowStride;
+    yuvUvPixelStride = src.uvPixelStride;
+
+    // Sample the rotated crop at the centre of each destination pixel, as for ARGB sources. When
+    // rotated by 90 or 270 degrees, destination columns walk down source columns and destination
+    // rows across source rows.
+    final boolean sideways = yuvRotation == 90 || yuvRotation == 270;
+    final int rotatedWidth = sideways ? yuvCropHeight : yuvCropWidth;
+    final int rotatedHeight = sideways ? yuvCropWidth : yuvCropHeight;
+    final int right = yuvCropLeft + yuvCropWidth - 1;
+    final int bottom = yuvCropTop + yuvCropHeight - 1;
+    for (int x = 0; x < dstWidth; ++x) {
+      final int rx = (int) (((2L * x + 1) * rotatedWidth) / (2L * dstWidth));
+      switch (yuvRotation) {
+        case 0:
+          setSourceColumn(lumaColumnOffsets, chromaColumnOffsets, x, yuvCropLeft + rx);
+          break;
+        case 90:
+          setSourceRow(lumaColumnOffsets, chromaColumnOffsets, x, bottom - rx);
+          break;
+        case 180:
+          setSourceColumn(lumaColumnOffsets, chromaColumnOffsets, x, right - rx);
+          break;
+        default:
+          setSourceRow(lumaColumnOffsets, chromaColumnOffsets, x, yuvCropTop + rx);
+          break;
+      }
+    }
+    for (int y = 0; y < dstHeight; ++y) {
+      final int ry = (int) (((2L * y + 1) * rotatedHeight) / (2L * dstHeight));
+      switch (yuvRotation) {
+        case 0:
+          setSourceRow(lumaRowOffsets, chromaRowOffsets, y, yuvCropTop + ry);
+          break;
+        case 90:
+          setSourceColumn(lumaRowOffsets, chromaRowOffsets, y, yuvCropLeft + ry);
+          break;
+        case 180:
+          setSourceRow(lumaRowOffsets, chromaRowOffsets, y, bottom - ry);
+          break;
+        default:
+          setSourceColumn(lumaRowOffsets, chromaRowOffsets, y, right - ry);
+          break;
+      }
+    }
+  }
+
+  private void setSourceColumn(
+      final int[] lumaOffsets, final int[] chromaOffsets, final int i, final int column) {
+    lumaOffsets[i] = column;
+    chromaOffsets[i] = (column >> 1) * yuvUvPixelStride;
+  }
+
+  private void setSourceRow(
+      final int[] lumaOffsets, final int[] chromaOffsets, final int i, final int row) {
+    lumaOffsets[i] = row * yuvRowStride;
+    chromaOffsets[i] = (row >> 1) * yuvUvRowStride;
+  }
+}
@@ -29,11 +29,20 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
-  static {
+  // Always prefer the native implementations if available. Each flag starts out as whether the
+  // library loaded, and is cleared the first time its method turns out to be missing from the
+  // library, so a missing library or method never costs more than one UnsatisfiedLinkError.
+  private static final boolean NATIVE_LIBRARY_LOADED = loadNativeLibrary();
+  private static volatile boolean useNativeYuv420SpConversion = NATIVE_LIBRARY_LOADED;
+  private static volatile boolean useNativeYuv420Conversion = NATIVE_LIBRARY_LOADED;
+
+  private static boolean loadNativeLibrary() {
     try {
       System.loadLibrary("tensorflow_demo");
+      return true;
     } catch (UnsatisfiedLinkError e) {
-      LOGGER.w("Native library not found, native RGB -> YUV conversion may be unavailable.");
+      LOGGER.w("Native library not found, falling back to Java YUV -> RGB conversion.");
+      return false;
     }
   }
 
@@ -52,6 +61,24 @@ public class ImageUtils {
     return ySize + uvSize;
   }
 
+  /**
+   * Copies the ARGB_8888 pixels of a Bitmap into a buffer, allocating a new one only if the given
+   * buffer is null or too small.
+   *
+   * @param bitmap The bitmap to read.
+   * @param buffer A buffer to reuse, or null.
+   * @return The buffer holding the pixels in row-major order.
+   */
+  public static int[] getPixels(final Bitmap bitmap, int[] buffer) {
+    final int width = bitmap.getWidth();
+    final int height = bitmap.getHeight();
+    if (buffer == null || buffer.length < width * height) {
+      buffer = new int[width * height];
+    }
+    bitmap.getPixels(buffer, 0, width, 0, 0, width, height);
+    return buffer;
+  }
+
   /**
    * Saves a Bitmap object to disk for analysis.
    *
@@ -96,66 +123,27 @@ public class ImageUtils {
   // are normalized to eight bits.
   static final int kMaxChannelValue = 262143;
 
-  // Always prefer the native implementation if available.
-  private static boolean useNativeConversion = true;
-
   public static void convertYUV420SPToARGB8888(
       byte[] input,
       int width,
       int height,
       int[] output) {
-    if (useNativeConversion) {
+    if (useNativeYuv420SpConversion) {
       try {
         ImageUtils.convertYUV420SPToARGB8888(input, output, width, height, false);
         return;
       } catch (UnsatisfiedLinkError e) {
         LOGGER.w(
             "Native YUV420SP -> RGB implementation not found, falling back to Java implementation");
-        useNativeConversion = false;
+        useNativeYuv420SpConversion = false;
       }
     }
 
-    // Java implementation of YUV420SP to ARGB8888 converting
+    // NV21: a full-size luma plane followed by interleaved V and U samples.
     final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
-      int uvp = frameSize + (j >> 1) * width;
-      int u = 0;
-      int v = 0;
-
-      for (int i = 0; i < width; i++, yp++) {
-        int y = 0xff & input[yp];
-        if ((i & 1) == 0) {
-          v = 0xff & input[uvp++];
-          u = 0xff & input[uvp++];
-        }
-
-        output[yp] = YUV2RGB(y, u, v);
-      }
-    }
-  }
-
-  private static int YUV2RGB(int y, int u, int v) {
-    // Adjust and check YUV values
-    y = (y - 16) < 0 ? 0 : (y - 16);
-    u -= 128;
-    v -= 128;
-
-    // This is the floating point equivalent. We do the conversion in integer
-    // because some Android devices do not have floating point in hardware.
-    // nR = (int)(1.164 * nY + 2.018 * nU);
-    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-    // nB = (int)(1.164 * nY + 1.596 * nV);
-    int y1192 = 1192 * y;
-    int r = (y1192 + 1634 * v);
-    int g = (y1192 - 833 * v - 400 * u);
-    int b = (y1192 + 2066 * u);
-
-    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
-    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
-    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
-    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
-
-    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    YuvToArgbConverter.convertRows(
+        input, 0, width, input, frameSize + 1, input, frameSize, width, 2, width, 0, height,
+        output);
   }
 
 
@@ -169,7 +157,7 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
-    if (useNativeConversion) {
+    if (useNativeYuv420Conversion) {
       try {
         convertYUV420ToARGB8888(
             yData, uData, vData, out, width, height, yRowStride, uvRowStride, uvPixelStride, false);
@@ -177,24 +165,13 @@ public class ImageUtils {
       } catch (UnsatisfiedLinkError e) {
         LOGGER.w(
             "Native YUV420 -> RGB implementation not found, falling back to Java implementation");
-        useNativeConversion = false;
+        useNativeYuv420Conversion = false;
       }
     }
 
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
-
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
-
-        out[yp++] = YUV2RGB(
-            0xff & yData[pY + i],
-            0xff & uData[uv_offset],
-            0xff & vData[uv_offset]);
-      }
-    }
+    YuvToArgbConverter.convertRows(
+        yData, 0, yRowStride, uData, 0, vData, 0, uvRowStride, uvPixelStride, width, 0, height,
+        out);
   }
 
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A coarse grid of average luma values summarizing an ARGB frame, cheap enough to compute on
+ * every frame and compare between frames to tell how much the scene changed.
+ * <p>
+ * <p>Each cell averages a fixed number of evenly spaced samples rather than every pixel, so the
+ * cost depends on the grid size only, not on the frame size. Instances are not thread-safe.
+ */
+public final class LumaSignature {
+  // Samples averaged along each axis of a cell.
+  private static final int SAMPLES_PER_CELL = 4;
+
+  private final int columns;
+  private final int rows;
+  private final float[] cells;
+  private boolean valid;
+
+  public LumaSignature(final int columns, final int rows) {
+    if (columns <= 0 || rows <= 0) {
+      throw new IllegalArgumentException("Bad grid size " + columns + "x" + rows);
+    }
+    this.columns = columns;
+    this.rows = rows;
+    cells = new float[columns * rows];
+  }
+
+  /** Computes the signature of a row-major ARGB_8888 frame. */
+  public void compute(final int[] argb, final int width, final int height) {
+    final int samplesX = columns * SAMPLES_PER_CELL;
+    final int samplesY = rows * SAMPLES_PER_CELL;
+    final float scale = 1.0f / (SAMPLES_PER_CELL * SAMPLES_PER_CELL * 255);
+    for (int row = 0; row < rows; ++row) {
+      for (int column = 0; column < columns; ++column) {
+        int sum = 0;
+        for (int sy = 0; sy < SAMPLES_PER_CELL; ++sy) {
+          // Sample at the centers of an even subdivision of the frame.
+          final int y = ((row * SAMPLES_PER_CELL + sy) * 2 + 1) * height / (2 * samplesY);
+          final int rowOffset = y * width;
+          for (int sx = 0; sx < SAMPLES_PER_CELL; ++sx) {
+            final int x = ((column * SAMPLES_PER_CELL + sx) * 2 + 1) * width / (2 * samplesX);
+            final int pixel = argb[rowOffset + x];
+            // BT.601 luma in 8-bit fixed point.
+            sum +=
+                (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff))
+                    >> 8;
+          }
+        }
+        cells[row * columns + column] = sum * scale;
+      }
+    }
+    valid = true;
+  }
+
+  /**
+   * Computes the signature of the crop of a YUV frame from its luma plane alone, without the
+   * rotation, which does not matter when comparing frames of the same orientation. Luma samples
+   * are expanded from video range the way the YUV to RGB conversion does, so that a distance means
+   * about the same as for the ARGB conversion of the frame.
+   */
+  public void compute(final YuvFrame frame) {
+    final ByteBuffer yPlane = frame.yPlane;
+    final int samplesX = columns * SAMPLES_PER_CELL;
+    final int samplesY = rows * SAMPLES_PER_CELL;
+    final float scale = 1.0f / (SAMPLES_PER_CELL * SAMPLES_PER_CELL * 255);
+    for (int row = 0; row < rows; ++row) {
+      for (int column = 0; column < columns; ++column) {
+        int sum = 0;
+        for (int sy = 0; sy < SAMPLES_PER_CELL; ++sy) {
+          final int y =
+              frame.cropTop
+                  + ((row * SAMPLES_PER_CELL + sy) * 2 + 1) * frame.cropHeight / (2 * samplesY);
+          final int rowOffset = y * frame.yRowStride;
+          for (int sx = 0; sx < SAMPLES_PER_CELL; ++sx) {
+            final int x =
+                frame.cropLeft
+                    + ((column * SAMPLES_PER_CELL + sx) * 2 + 1) * frame.cropWidth / (2 * samplesX);
+            // (Y - 16) * 255 / 219, in the converter's 10-bit fixed point, clamped to [0, 255].
+            final int luma = ((0xff & yPlane.get(rowOffset + x)) - 16) * 1192 >> 10;
+            sum += Math.min(255, Math.max(0, luma));
+          }
+        }
+        cells[row * columns + column] = sum * scale;
+      }
+    }
+    valid = true;
+  }
+
+  /** Whether a signature has been computed or copied since the last {@link #invalidate()}. */
+  public boolean isValid() {
+    return valid;
+  }
+
+  public void invalidate() {
+    valid = false;
+  }
+
+  public void copyFrom(final LumaSignature other) {
+    checkSameGrid(other);
+    System.arraycopy(other.cells, 0, cells, 0, cells.length);
+    valid = other.valid;
+  }
+
+  /**
+   * Returns the mean absolute luma difference between the cells of two signatures, from 0 for
+   * identical frames to 1 for black against white. Returns 1 if either is not valid.
+   */
+  public float distance(final LumaSignature other) {
+    checkSameGrid(other);
+    if (!valid || !other.valid) {
+      return 1.0f;
+    }
+    float sum = 0.0f;
+    for (int i = 0; i < cells.length; ++i) {
+      sum += Math.abs(cells[i] - other.cells[i]);
+    }
+    return sum / cells.length;
+  }
+
+  /**
+   * Returns the largest absolute luma difference between corresponding cells of two signatures,
+   * from 0 to 1, or 1 if either is not valid. Unlike {@link #distance}, this does not shrink as the
+   * grid gets finer, so it picks up a change confined to a few cells.
+   */
+  public float maxCellDistance(final LumaSignature other) {
+    checkSameGrid(other);
+    if (!valid || !other.valid) {
+      return 1.0f;
+    }
+    float max = 0.0f;
+    for (int i = 0; i < cells.length; ++i) {
+      max = Math.max(max, Math.abs(cells[i] - other.cells[i]));
+    }
+    return max;
+  }
+
+  private void checkSameGrid(final LumaSignature other) {
+    if (other.columns != columns || other.rows != rows) {
+      throw new IllegalArgumentException(
+          "Grid " + other.columns + "x" + other.rows + " differs from " + columns + "x" + rows);
+    }
+  }
+}
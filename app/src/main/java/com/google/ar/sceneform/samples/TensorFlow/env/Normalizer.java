@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+/**
+ * Maps an 8-bit colour channel to the float value a model expects. Every possible input is
+ * computed once up front, so the per-pixel cost is a table lookup instead of a subtract and
+ * divide.
+ */
+public final class Normalizer {
+  final float[] table = new float[256];
+
+  private Normalizer() {}
+
+  /** Returns a normalizer computing {@code (channel - mean) / std}. */
+  public static Normalizer meanStd(final float mean, final float std) {
+    final Normalizer n = new Normalizer();
+    for (int c = 0; c < 256; ++c) {
+      n.table[c] = (c - mean) / std;
+    }
+    return n;
+  }
+
+  /** Returns a normalizer scaling channels into [0, 1]. */
+  public static Normalizer unitRange() {
+    final Normalizer n = new Normalizer();
+    for (int c = 0; c < 256; ++c) {
+      n.table[c] = c / 255.0f;
+    }
+    return n;
+  }
+
+  /** Returns the normalized value of a channel in [0, 255]. */
+  public float apply(final int channel) {
+    return table[channel];
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+/**
+ * Decides before inference whether a frame shows anything the last inferred frame did not, so
+ * that frames of an unchanged scene skip the detector and the previous results stay in effect.
+ * <p>
+ * <p>Every frame is reduced to a {@link LumaSignature} and compared with the signature of the
+ * last frame {@link #commit committed} as inferred. Comparing with that frame rather than with the
+ * previous one means a slow drift is caught once it adds up to the threshold. A frame counts as
+ * changed if the mean difference over all cells reaches one threshold, or the difference in any
+ * single cell reaches another, so that a small object moving over a still background is noticed
+ * while sensor noise, which is spread thinly over every cell, is not. A frame only counts
+ * as inferred once the caller commits it after the detector has returned its results, so frames
+ * dropped on the way, e.g. because no detector was loaded yet or inference failed, leave the gate
+ * open. Until the first commit, and after {@link #reset()}, every frame is let through. Instances
+ * are thread-safe.
+ */
+public final class SceneChangeGate {
+  private final int gridSize;
+  private final float threshold;
+  private final float cellThreshold;
+
+  private final LumaSignature previousFrameSignature;
+  private final LumaSignature inferredSignature;
+
+  private float frameMotion = 1.0f;
+  private long passedCount;
+  private long skippedCount;
+  private long throttledCount;
+
+  /**
+   * Creates a gate that only compares the mean luma difference.
+   *
+   * @param gridSize Cells along each axis of the signature.
+   * @param threshold Mean luma difference, from 0 to 1, below which a frame counts as unchanged.
+   */
+  public SceneChangeGate(final int gridSize, final float threshold) {
+    this(gridSize, threshold, Float.POSITIVE_INFINITY);
+  }
+
+  /**
+   * @param gridSize Cells along each axis of the signature.
+   * @param threshold Mean luma difference, from 0 to 1, below which a frame counts as unchanged.
+   * @param cellThreshold Luma difference in a single cell, from 0 to 1, at which a frame counts as
+   *     changed whatever the mean. Set it well above the noise of a cell average.
+   */
+  public SceneChangeGate(final int gridSize, final float threshold, final float cellThreshold) {
+    this.gridSize = gridSize;
+    this.threshold = threshold;
+    this.cellThreshold = cellThreshold;
+    previousFrameSignature = newSignature();
+    inferredSignature = newSignature();
+  }
+
+  /** Returns a signature of the grid size this gate compares, to keep with a frame. */
+  public LumaSignature newSignature() {
+    return new LumaSignature(gridSize, gridSize);
+  }
+
+  /**
+   * Computes the signature of a row-major ARGB_8888 frame into {@code signature} and returns
+   * whether the frame should be inferred. If it is, pass the signature to {@link #commit} once
+   * the detector has returned its results.
+   */
+  public boolean shouldInfer(
+      final int[] argb, final int width, final int height, final LumaSignature signature) {
+    signature.compute(argb, width, height);
+    return shouldInfer(signature);
+  }
+
+  /** Like {@link #shouldInfer(int[], int, int, LumaSignature)}, for the crop of a YUV frame. */
+  public boolean shouldInfer(final YuvFrame frame, final LumaSignature signature) {
+    signature.compute(frame);
+    return shouldInfer(signature);
+  }
+
+  private boolean shouldInfer(final LumaSignature signature) {
+    synchronized (this) {
+      frameMotion = signature.distance(previousFrameSignature);
+      previousFrameSignature.copyFrom(signature);
+
+      if (signature.distance(inferredSignature) < threshold
+          && signature.maxCellDistance(inferredSignature) < cellThreshold) {
+        ++skippedCount;
+        return false;
+      }
+      ++passedCount;
+      return true;
+    }
+  }
+
+  /**
+   * Records that the frame with the given signature has been inferred, so that later frames are
+   * compared with it.
+   */
+  public synchronized void commit(final LumaSignature signature) {
+    inferredSignature.copyFrom(signature);
+  }
+
+  /**
+   * Records that the caller dropped the frame last let through without inferring it, e.g. because
+   * inference was throttled, so that it is counted as throttled rather than passed.
+   */
+  public synchronized void countThrottled() {
+    --passedCount;
+    ++throttledCount;
+  }
+
+  /** Lets the next frame through whatever it shows, e.g. because the detector was replaced. */
+  public synchronized void reset() {
+    inferredSignature.invalidate();
+  }
+
+  /**
+   * Returns how much the last frame passed to {@link #shouldInfer} differed from the one before,
+   * from 0 to 1, or 1 if it was the first.
+   */
+  public synchronized float getFrameMotion() {
+    return frameMotion;
+  }
+
+  public synchronized long getPassedCount() {
+    return passedCount;
+  }
+
+  public synchronized long getSkippedCount() {
+    return skippedCount;
+  }
+
+  public synchronized long getThrottledCount() {
+    return throttledCount;
+  }
+
+  /**
+   * Returns the fraction of frames the gate kept from the detector, out of those it skipped or
+   * passed. Throttled frames are left out, since the caller, not the gate, dropped them.
+   */
+  public synchronized float getSkipRatio() {
+    final long total = passedCount + skippedCount;
+    return total > 0 ? (float) skippedCount / total : 0.0f;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "passed=%d skipped=%d throttled=%d skipRatio=%.0f%%",
+        passedCount, skippedCount, throttledCount, getSkipRatio() * 100.0f);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+/**
+ * Keeps the {@code k} best (score, index) pairs out of a stream of candidates in a fixed-capacity
+ * min-heap, so that selecting from {@code n} candidates costs O(n log k) and allocates nothing.
+ * <p>
+ * <p>Higher scores are better; between equal scores the lower index wins, so the selection does
+ * not depend on the order candidates are offered in. Instances are not thread-safe.
+ */
+public final class TopKSelector {
+  private final float[] scores;
+  private final int[] indices;
+  private int size;
+
+  public TopKSelector(final int k) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    scores = new float[k];
+    indices = new int[k];
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Offers a candidate, keeping it if it is among the {@code k} best seen since the last clear. */
+  public void offer(final float score, final int index) {
+    if (size < scores.length) {
+      int i = size++;
+      // Sift up.
+      while (i > 0) {
+        final int parent = (i - 1) >>> 1;
+        if (!isWorse(score, index, scores[parent], indices[parent])) {
+          break;
+        }
+        scores[i] = scores[parent];
+        indices[i] = indices[parent];
+        i = parent;
+      }
+      scores[i] = score;
+      indices[i] = index;
+    } else if (isWorse(scores[0], indices[0], score, index)) {
+      siftDown(score, index, size);
+    }
+  }
+
+  /**
+   * Writes the selected indices, and their scores if {@code outScores} is not null, best first,
+   * then clears the selector.
+   *
+   * @return The number of pairs written.
+   */
+  public int drain(final int[] outIndices, final float[] outScores) {
+    final int count = size;
+    // Heap sort: moving the worst pair to the end of the shrinking heap leaves the best at 0.
+    for (int end = count - 1; end > 0; --end) {
+      final float score = scores[end];
+      final int index = indices[end];
+      scores[end] = scores[0];
+      indices[end] = indices[0];
+      siftDown(score, index, end);
+    }
+    System.arraycopy(indices, 0, outIndices, 0, count);
+    if (outScores != null) {
+      System.arraycopy(scores, 0, outScores, 0, count);
+    }
+    size = 0;
+    return count;
+  }
+
+  /** Places the pair at the root of the heap {@code [0, heapSize)} and restores heap order. */
+  private void siftDown(final float score, final int index, final int heapSize) {
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize
+          && isWorse(scores[child + 1], indices[child + 1], scores[child], indices[child])) {
+        ++child;
+      }
+      if (!isWorse(scores[child], indices[child], score, index)) {
+        break;
+      }
+      scores[i] = scores[child];
+      indices[i] = indices[child];
+      i = child;
+    }
+    scores[i] = score;
+    indices[i] = index;
+  }
+
+  private static boolean isWorse(
+      final float score, final int index, final float otherScore, final int otherIndex) {
+    return score < otherScore || (score == otherScore && index > otherIndex);
+  }
+}
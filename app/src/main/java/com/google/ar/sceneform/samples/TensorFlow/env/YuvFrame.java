@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV 4:2:0 frame in any plane layout, such as a YUV_420_888 camera image, together with the
+ * part of it to feed a model and the clockwise rotation that turns that part upright.
+ * <p>
+ * <p>Planes are read with absolute gets, index 0 of each buffer holding the plane's first sample,
+ * and the U and V planes share a row and pixel stride. Setting the planes resets the crop to the
+ * whole frame; the rotation is kept. Instances are reusable and not thread-safe.
+ */
+public final class YuvFrame {
+  ByteBuffer yPlane;
+  ByteBuffer uPlane;
+  ByteBuffer vPlane;
+  int width;
+  int height;
+  int yRowStride;
+  int uvRowStride;
+  int uvPixelStride;
+
+  int cropLeft;
+  int cropTop;
+  int cropWidth;
+  int cropHeight;
+  int rotation;
+
+  // Buffers owned by this frame, holding the planes last copied by copyFrom.
+  private ByteBuffer yCopy;
+  private ByteBuffer uCopy;
+  private ByteBuffer vCopy;
+
+  /** Points the frame at the given planes, without copying them. */
+  public YuvFrame setPlanes(
+      final ByteBuffer yPlane,
+      final ByteBuffer uPlane,
+      final ByteBuffer vPlane,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Bad frame size " + width + "x" + height);
+    }
+    this.yPlane = yPlane;
+    this.uPlane = uPlane;
+    this.vPlane = vPlane;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+    cropLeft = 0;
+    cropTop = 0;
+    cropWidth = width;
+    cropHeight = height;
+    return this;
+  }
+
+  /**
+   * Copies the planes of a YUV_420_888 image into buffers owned by this frame, reusing them if
+   * they are large enough, so that the image can be closed right away.
+   */
+  public YuvFrame copyFrom(final Image image) {
+    final Image.Plane[] planes = image.getPlanes();
+    yCopy = copy(planes[0].getBuffer(), yCopy);
+    uCopy = copy(planes[1].getBuffer(), uCopy);
+    vCopy = copy(planes[2].getBuffer(), vCopy);
+    return setPlanes(
+        yCopy,
+        uCopy,
+        vCopy,
+        image.getWidth(),
+        image.getHeight(),
+        planes[0].getRowStride(),
+        planes[1].getRowStride(),
+        planes[1].getPixelStride());
+  }
+
+  /** Restricts the part of the frame fed to a model to the given rectangle. */
+  public YuvFrame setCrop(final int left, final int top, final int width, final int height) {
+    if (left < 0
+        || top < 0
+        || width <= 0
+        || height <= 0
+        || left + width > this.width
+        || top + height > this.height) {
+      throw new IllegalArgumentException(
+          "Crop " + width + "x" + height + "+" + left + "+" + top + " outside of "
+              + this.width + "x" + this.height + " frame");
+    }
+    cropLeft = left;
+    cropTop = top;
+    cropWidth = width;
+    cropHeight = height;
+    return this;
+  }
+
+  /**
+   * Crops the frame to its largest centered rectangle that, turned upright, has the aspect ratio
+   * {@code width:height}, such as the part a view filled by the frame shows. Takes the current
+   * rotation into account, so set that first.
+   */
+  public YuvFrame cropToAspect(final int width, final int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Bad aspect ratio " + width + ":" + height);
+    }
+    // The aspect ratio in the orientation of the frame.
+    final boolean sideways = rotation % 180 != 0;
+    final long aspectWidth = sideways ? height : width;
+    final long aspectHeight = sideways ? width : height;
+    int cropWidth = this.width;
+    int cropHeight = this.height;
+    if (this.width * aspectHeight > this.height * aspectWidth) {
+      cropWidth = (int) Math.max(1, this.height * aspectWidth / aspectHeight);
+    } else {
+      cropHeight = (int) Math.max(1, this.width * aspectHeight / aspectWidth);
+    }
+    return setCrop(
+        (this.width - cropWidth) / 2, (this.height - cropHeight) / 2, cropWidth, cropHeight);
+  }
+
+  /** Sets the clockwise rotation, in degrees, that turns the crop upright. */
+  public YuvFrame setRotation(final int degrees) {
+    if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+      throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270: " + degrees);
+    }
+    rotation = degrees;
+    return this;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getRotation() {
+    return rotation;
+  }
+
+  private static ByteBuffer copy(final ByteBuffer src, ByteBuffer dst) {
+    final int size = src.remaining();
+    if (dst == null || dst.capacity() < size) {
+      dst = ByteBuffer.allocate(size);
+    }
+    dst.clear();
+    dst.put(src);
+    return dst;
+  }
+}
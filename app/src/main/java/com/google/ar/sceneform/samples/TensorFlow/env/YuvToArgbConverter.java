@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+/**
+ * Java conversion of YUV 4:2:0 frames to ARGB_8888, used by {@link ImageUtils} when the native
+ * library is missing and, pixel by pixel, by {@link ImagePreprocessor} when it reads camera frames.
+ * The output is bit-identical to that of the per-pixel loops it replaces.
+ * <p>
+ * <p>Each row is converted in pairs of pixels sharing a chroma sample, so the chroma terms are
+ * computed once per pair, and channels are clamped with sign-bit arithmetic instead of
+ * comparisons, leaving the inner loop without data-dependent branches. Rows are independent, so
+ * any range of them can be converted on its own.
+ */
+final class YuvToArgbConverter {
+  // Channels are computed in fixed point with 10 fractional bits and clamped to 18 bits before
+  // being cut down to 8.
+  private static final int MAX_CHANNEL_VALUE = ImageUtils.kMaxChannelValue;
+
+  private YuvToArgbConverter() {}
+
+  /**
+   * Converts the rows {@code [rowStart, rowEnd)} of a frame into {@code out}, which holds the
+   * frame's {@code width * height} pixels in row-major order. Row {@code j} of the chroma planes
+   * covers image rows {@code 2j} and {@code 2j + 1}.
+   *
+   * @param yOffset Index of the first luma sample.
+   * @param uOffset Index of the first U sample.
+   * @param vOffset Index of the first V sample.
+   * @param uvPixelStride Distance between horizontally adjacent chroma samples, 2 if U and V are
+   *     interleaved.
+   */
+  static void convertRows(
+      final byte[] yData,
+      final int yOffset,
+      final int yRowStride,
+      final byte[] uData,
+      final int uOffset,
+      final byte[] vData,
+      final int vOffset,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int width,
+      final int rowStart,
+      final int rowEnd,
+      final int[] out) {
+    final int pairedWidth = width & ~1;
+    for (int row = rowStart; row < rowEnd; ++row) {
+      int yp = yOffset + row * yRowStride;
+      final int uvRowOffset = (row >> 1) * uvRowStride;
+      int up = uOffset + uvRowOffset;
+      int vp = vOffset + uvRowOffset;
+      int op = row * width;
+      final int rowOutEnd = op + pairedWidth;
+
+      while (op < rowOutEnd) {
+        final int u = (0xff & uData[up]) - 128;
+        final int v = (0xff & vData[vp]) - 128;
+        final int rTerm = 1634 * v;
+        final int gTerm = -833 * v - 400 * u;
+        final int bTerm = 2066 * u;
+
+        out[op] = toArgb(luma(yData[yp]), rTerm, gTerm, bTerm);
+        out[op + 1] = toArgb(luma(yData[yp + 1]), rTerm, gTerm, bTerm);
+
+        yp += 2;
+        op += 2;
+        up += uvPixelStride;
+        vp += uvPixelStride;
+      }
+
+      if (pairedWidth < width) {
+        final int u = (0xff & uData[up]) - 128;
+        final int v = (0xff & vData[vp]) - 128;
+        out[op] = toArgb(luma(yData[yp]), 1634 * v, -833 * v - 400 * u, 2066 * u);
+      }
+    }
+  }
+
+  /**
+   * Converts a single pixel, for callers such as {@link ImagePreprocessor} that sample pixels in
+   * an order of their own rather than converting whole rows.
+   */
+  static int toArgb(final byte y, final byte u, final byte v) {
+    final int uc = (0xff & u) - 128;
+    final int vc = (0xff & v) - 128;
+    return toArgb(luma(y), 1634 * vc, -833 * vc - 400 * uc, 2066 * uc);
+  }
+
+  /** Returns the luma sample less the video black level, in fixed point. */
+  private static int luma(final byte sample) {
+    final int y = (0xff & sample) - 16;
+    return 1192 * (y & ~(y >> 31));
+  }
+
+  private static int toArgb(final int luma, final int rTerm, final int gTerm, final int bTerm) {
+    final int r = clamp(luma + rTerm);
+    final int g = clamp(luma + gTerm);
+    final int b = clamp(luma + bTerm);
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  /** Clamps to {@code [0, MAX_CHANNEL_VALUE]} using the sign bit rather than branches. */
+  private static int clamp(final int value) {
+    final int nonNegative = value & ~(value >> 31);
+    final int excess = nonNegative - MAX_CHANNEL_VALUE;
+    return MAX_CHANNEL_VALUE + (excess & (excess >> 31));
+  }
+}
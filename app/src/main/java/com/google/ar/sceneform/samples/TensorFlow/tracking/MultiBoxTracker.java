@@ -30,6 +30,7 @@ import android.util.TypedValue;
 import android.widget.Toast;
 
 import com.google.ar.sceneform.samples.TensorFlow.Classifier.Recognition;
+import com.google.ar.sceneform.samples.TensorFlow.DetectionBuffer;
 import com.google.ar.sceneform.samples.TensorFlow.env.BorderedText;
 import com.google.ar.sceneform.samples.TensorFlow.env.ImageUtils;
 import com.google.ar.sceneform.samples.TensorFlow.env.Logger;
@@ -83,6 +84,12 @@ public class MultiBoxTracker {
 
   private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
 
+  // Recognitions passed to trackResults, copied into a buffer sized for the largest list seen.
+  private DetectionBuffer recognitionDetections = new DetectionBuffer(0);
+  // Indices of the detections worth tracking in the current results.
+  private int[] detectionsToTrack = new int[0];
+  private final RectF detectionRect = new RectF();
+
   private final Paint boxPaint = new Paint();
 
   private final float textSizePx;
@@ -158,8 +165,37 @@ public class MultiBoxTracker {
 
   public synchronized void trackResults(
       final List<Recognition> results, final byte[] frame, final long timestamp) {
-    logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(timestamp, results, frame);
+    if (recognitionDetections.capacity() < results.size()) {
+      recognitionDetections = new DetectionBuffer(results.size());
+    }
+    recognitionDetections.clear();
+    for (final Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location == null) {
+        recognitionDetections.add(result.getConfidence(), 0, result.getTitle(), 0);
+      } else {
+        recognitionDetections.add(
+            location.left,
+            location.top,
+            location.right,
+            location.bottom,
+            result.getConfidence(),
+            0,
+            result.getTitle(),
+            0);
+      }
+    }
+    trackResults(recognitionDetections, frame, timestamp);
+  }
+
+  /**
+   * Like {@link #trackResults(List, byte[], long)}, reading the detections straight from a
+   * detector's buffer. Nothing is retained from {@code detections} after this returns.
+   */
+  public synchronized void trackResults(
+      final DetectionBuffer detections, final byte[] frame, final long timestamp) {
+    logger.i("Processing %d results from %d", detections.size(), timestamp);
+    processResults(timestamp, detections, frame);
   }
 
   public synchronized void draw(final Canvas canvas) {
@@ -246,47 +282,50 @@ public class MultiBoxTracker {
   }
 
   private void processResults(
-      final long timestamp, final List<Recognition> results, final byte[] originalFrame) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
+      final long timestamp, final DetectionBuffer detections, final byte[] originalFrame) {
+    if (detectionsToTrack.length < detections.size()) {
+      detectionsToTrack = new int[detections.capacity()];
+    }
+    int numToTrack = 0;
 
     screenRects.clear();
     final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
 
-    for (final Recognition result : results) {
-      if (result.getLocation() == null) {
+    for (int i = 0; i < detections.size(); ++i) {
+      if (!detections.hasLocation(i)) {
         continue;
       }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
+      final RectF detectionFrameRect = detections.getLocation(i, detectionRect);
 
       final RectF detectionScreenRect = new RectF();
       rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
 
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      logger.v("Result! Frame: " + detectionFrameRect + " mapped to screen:" + detectionScreenRect);
 
-      screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
+      screenRects.add(new Pair<Float, RectF>(detections.getScore(i), detectionScreenRect));
 
       if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
         logger.w("Degenerate rectangle! " + detectionFrameRect);
         continue;
       }
 
-      rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
+      detectionsToTrack[numToTrack++] = i;
     }
 
-    if (rectsToTrack.isEmpty()) {
+    if (numToTrack == 0) {
       logger.v("Nothing to track, aborting.");
       return;
     }
 
     if (objectTracker == null) {
       trackedObjects.clear();
-      for (final Pair<Float, Recognition> potential : rectsToTrack) {
+      for (int k = 0; k < numToTrack; ++k) {
+        final int i = detectionsToTrack[k];
         final TrackedRecognition trackedRecognition = new TrackedRecognition();
-        trackedRecognition.detectionConfidence = potential.first;
-        trackedRecognition.location = new RectF(potential.second.getLocation());
+        trackedRecognition.detectionConfidence = detections.getScore(i);
+        trackedRecognition.location = detections.getLocation(i, new RectF());
         trackedRecognition.trackedObject = null;
-        trackedRecognition.title = potential.second.getTitle();
+        trackedRecognition.title = detections.getTitle(i);
         trackedRecognition.color = COLORS[trackedObjects.size()];
         trackedObjects.add(trackedRecognition);
 
@@ -297,21 +336,29 @@ public class MultiBoxTracker {
       return;
     }
 
-    logger.i("%d rects to track", rectsToTrack.size());
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      handleDetection(originalFrame, timestamp, potential);
+    logger.i("%d rects to track", numToTrack);
+    for (int k = 0; k < numToTrack; ++k) {
+      handleDetection(originalFrame, timestamp, detections, detectionsToTrack[k]);
     }
   }
 
   private void handleDetection(
-      final byte[] frameCopy, final long timestamp, final Pair<Float, Recognition> potential) {
+      final byte[] frameCopy,
+      final long timestamp,
+      final DetectionBuffer detections,
+      final int detection) {
+    final float potentialConfidence = detections.getScore(detection);
+    final String potentialTitle = detections.getTitle(detection);
+    final RectF potentialLocation = detections.getLocation(detection, detectionRect);
     final ObjectTracker.TrackedObject potentialObject =
-        objectTracker.trackObject(potential.second.getLocation(), timestamp, frameCopy);
+        objectTracker.trackObject(potentialLocation, timestamp, frameCopy);
 
     final float potentialCorrelation = potentialObject.getCurrentCorrelation();
     logger.v(
         "Tracked object went from %s to %s with correlation %.2f",
-        potential.second, potentialObject.getTrackedPositionInPreviewFrame(), potentialCorrelation);
+        potentialLocation,
+        potentialObject.getTrackedPositionInPreviewFrame(),
+        potentialCorrelation);
 
     if (potentialCorrelation < MARGINAL_CORRELATION) {
       logger.v("Correlation too low to begin tracking %s.", potentialObject);
@@ -343,7 +390,7 @@ public class MultiBoxTracker {
       // percentage allowed, either the new recognition needs to be dismissed or the old
       // recognition needs to be removed and possibly replaced with the new one.
       if (intersects && intersectOverUnion > MAX_OVERLAP) {
-        if (potential.first < trackedRecognition.detectionConfidence
+        if (potentialConfidence < trackedRecognition.detectionConfidence
             && trackedRecognition.trackedObject.getCurrentCorrelation() > MARGINAL_CORRELATION) {
           // If track for the existing object is still going strong and the detection score was
           // good, reject this new object.
@@ -367,7 +414,7 @@ public class MultiBoxTracker {
     // object.
     if (availableColors.isEmpty() && removeList.isEmpty()) {
       for (final TrackedRecognition candidate : trackedObjects) {
-        if (candidate.detectionConfidence < potential.first) {
+        if (candidate.detectionConfidence < potentialConfidence) {
           if (recogToReplace == null
               || candidate.detectionConfidence < recogToReplace.detectionConfidence) {
             // Save it so that we use this color for the new object.
@@ -407,13 +454,13 @@ public class MultiBoxTracker {
     logger.v(
         "Tracking object %s (%s) with detection confidence %.2f at position %s",
         potentialObject,
-        potential.second.getTitle(),
-        potential.first,
-        potential.second.getLocation());
+        potentialTitle,
+        potentialConfidence,
+        potentialLocation);
     final TrackedRecognition trackedRecognition = new TrackedRecognition();
-    trackedRecognition.detectionConfidence = potential.first;
+    trackedRecognition.detectionConfidence = potentialConfidence;
     trackedRecognition.trackedObject = potentialObject;
-    trackedRecognition.title = potential.second.getTitle();
+    trackedRecognition.title = potentialTitle;
 
     // Use the color from a replaced object before taking one from the color queue.
     trackedRecognition.color =
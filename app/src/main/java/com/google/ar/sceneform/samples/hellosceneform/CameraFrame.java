@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.hellosceneform;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.LumaSignature;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+/**
+ * A copy of a camera image, cropped to the part the scene view shows and rotated upright. The
+ * planes are reused across frames, so the camera image can be closed as soon as it is copied.
+ */
+final class CameraFrame {
+    final YuvFrame yuv = new YuvFrame();
+    // Summary of the frame for the scene change gate, committed once the frame is inferred.
+    LumaSignature signature;
+}
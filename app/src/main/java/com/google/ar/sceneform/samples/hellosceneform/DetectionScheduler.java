@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.hellosceneform;
+
+import android.os.SystemClock;
+
+/**
+ * Paces the capture thread and decides which changed frames are inferred, from the measured
+ * inference latency and how much the scene moves.
+ * <p>
+ * <p>Frames are captured at a short fixed interval, so that a change in the scene is noticed
+ * quickly while sampling it stays cheap. Only inference is throttled: the inference interval stays
+ * between a minimum and a maximum, is never shorter than the latency divided by the CPU budget,
+ * i.e. the fraction of each detector's time that detection may use, and shrinks towards that limit
+ * as motion increases. Motion is reported per captured frame as a score from 0 to 1. Instances are
+ * thread-safe.
+ */
+class DetectionScheduler {
+    // Weight of the newest latency sample in the running average.
+    private static final float LATENCY_SMOOTHING = 0.2f;
+
+    /** Source of time for the scheduler, replaced in tests. */
+    interface Clock {
+        long uptimeMillis();
+
+        void sleep(long ms) throws InterruptedException;
+    }
+
+    private static final Clock SYSTEM_CLOCK =
+            new Clock() {
+                @Override
+                public long uptimeMillis() {
+                    return SystemClock.uptimeMillis();
+                }
+
+                @Override
+                public void sleep(final long ms) throws InterruptedException {
+                    Thread.sleep(ms);
+                }
+            };
+
+    private final Clock clock;
+    private final long sampleIntervalMs;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final float cpuBudget;
+    private final int parallelism;
+
+    private float fullMotion = 0.05f;
+
+    private float averageLatencyMs;
+    private float motion = 1.0f;
+    private long lastSampleTimeMs;
+    private long lastDetectionTimeMs = Long.MIN_VALUE / 2;
+
+    /**
+     * @param sampleIntervalMs Time between captures.
+     * @param minIntervalMs Shortest time between inferences.
+     * @param maxIntervalMs Longest time between inferences of a changed scene, used while it
+     *     barely moves.
+     * @param cpuBudget Fraction of each detector's time detection may take, in (0, 1].
+     * @param parallelism Number of detectors running concurrently.
+     */
+    DetectionScheduler(
+            final long sampleIntervalMs,
+            final long minIntervalMs,
+            final long maxIntervalMs,
+            final float cpuBudget,
+            final int parallelism) {
+        this(sampleIntervalMs, minIntervalMs, maxIntervalMs, cpuBudget, parallelism, SYSTEM_CLOCK);
+    }
+
+    DetectionScheduler(
+            final long sampleIntervalMs,
+            final long minIntervalMs,
+            final long maxIntervalMs,
+            final float cpuBudget,
+            final int parallelism,
+            final Clock clock) {
+        if (sampleIntervalMs < 0) {
+            throw new IllegalArgumentException("Bad sample interval " + sampleIntervalMs);
+        }
+        if (minIntervalMs < 0 || maxIntervalMs < minIntervalMs) {
+            throw new IllegalArgumentException(
+                    "Bad interval bounds " + minIntervalMs + ".." + maxIntervalMs);
+        }
+        if (cpuBudget <= 0 || cpuBudget > 1) {
+            throw new IllegalArgumentException("CPU budget must be in (0, 1]: " + cpuBudget);
+        }
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.cpuBudget = cpuBudget;
+        this.parallelism = Math.max(1, parallelism);
+        this.clock = clock;
+    }
+
+    /** Sets the motion score at and above which inference runs at the shortest interval. */
+    synchronized DetectionScheduler setFullMotion(final float fullMotion) {
+        this.fullMotion = fullMotion;
+        return this;
+    }
+
+    /** Blocks the capture thread until the next frame is due to be sampled. */
+    void awaitSampleSlot() throws InterruptedException {
+        final long due;
+        synchronized (this) {
+            due = lastSampleTimeMs + sampleIntervalMs;
+        }
+        final long now = clock.uptimeMillis();
+        if (now < due) {
+            clock.sleep(due - now);
+        }
+        synchronized (this) {
+            lastSampleTimeMs = clock.uptimeMillis();
+        }
+    }
+
+    /** Reports how much a captured frame differs from the one before. */
+    synchronized void onFrameMotion(final float frameMotion) {
+        motion = frameMotion;
+    }
+
+    /**
+     * Returns whether a changed frame may be inferred now, and if so starts the next inference
+     * interval. A frame refused here should not be recorded as inferred, so that the change is
+     * picked up once inference is due.
+     */
+    synchronized boolean tryStartDetection() {
+        final long now = clock.uptimeMillis();
+        if (now - lastDetectionTimeMs < getIntervalMs()) {
+            return false;
+        }
+        lastDetectionTimeMs = now;
+        return true;
+    }
+
+    /** Reports how long a detection took. */
+    synchronized void onDetectionFinished(final long latencyMs) {
+        averageLatencyMs =
+                averageLatencyMs == 0
+                        ? latencyMs
+                        : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+    }
+
+    /** Returns the time between inferences for the current latency and motion. */
+    synchronized long getIntervalMs() {
+        final long budgetIntervalMs = (long) (averageLatencyMs / (cpuBudget * parallelism));
+        final long fastestMs = Math.min(maxIntervalMs, Math.max(minIntervalMs, budgetIntervalMs));
+        final float motionLevel = Math.min(1.0f, motion / fullMotion);
+        return fastestMs + (long) ((maxIntervalMs - fastestMs) * (1.0f - motionLevel));
+    }
+
+    synchronized String getStatString() {
+        return String.format(
+                "sample=%dms inference=%dms latency=%.0fms motion=%.3f",
+                sampleIntervalMs, getIntervalMs(), averageLatencyMs, motion);
+    }
+}
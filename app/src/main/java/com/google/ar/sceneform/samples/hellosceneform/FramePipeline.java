@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.hellosceneform;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.FrameQueue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs capture, preprocessing and inference on separate threads connected by bounded,
+ * drop-oldest {@link FrameQueue}s.
+ * <p>
+ * <p>A permit is taken before every capture and only returned once the frame has been consumed by
+ * the inference stage or dropped, so capture never runs ahead of inference by more than
+ * {@code maxFramesInFlight} frames and the detection rate follows the actual inference latency.
+ * Several inference threads can consume frames concurrently if the sink is thread-safe.
+ *
+ * @param <C> Type of the captured frames.
+ * @param <P> Type of the preprocessed frames handed to inference.
+ */
+class FramePipeline<C, P> {
+    private static final String TAG = FramePipeline.class.getSimpleName();
+
+    // Back-off used when a stage throws, e.g. while the scene view has not been laid out yet.
+    private static final long RETRY_DELAY_MS = 500;
+
+    /** Produces a new frame, blocking until it is available. Returns null to skip a cycle. */
+    interface FrameSource<C> {
+        C capture() throws Exception;
+    }
+
+    /**
+     * Converts a captured frame into the input expected by the inference stage. The captured
+     * frame is recycled as soon as this returns.
+     */
+    interface FrameTransform<C, P> {
+        P apply(C frame);
+    }
+
+    /** Consumes a preprocessed frame. */
+    interface FrameSink<P> {
+        void accept(P frame);
+    }
+
+    /** Takes back frames the pipeline no longer needs, whether consumed or dropped. */
+    interface FrameRecycler<F> {
+        void recycle(F frame);
+    }
+
+    private final FrameSource<C> source;
+    private final FrameTransform<C, P> transform;
+    private final FrameSink<P> sink;
+    private final FrameRecycler<C> capturedRecycler;
+    private final FrameRecycler<P> preprocessedRecycler;
+
+    private final Semaphore framePermits;
+    private final FrameQueue<C> capturedFrames;
+    private final FrameQueue<P> preprocessedFrames;
+
+    private final Thread captureThread;
+    private final Thread preprocessThread;
+    private final Thread[] inferenceThreads;
+
+    private volatile boolean running;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private volatile long lastInferenceTimeMs;
+
+    FramePipeline(
+            final FrameSource<C> source,
+            final FrameTransform<C, P> transform,
+            final FrameSink<P> sink,
+            final FrameRecycler<C> capturedRecycler,
+            final FrameRecycler<P> preprocessedRecycler,
+            final int maxFramesInFlight) {
+        this(source, transform, sink, capturedRecycler, preprocessedRecycler, maxFramesInFlight,
+                1);
+    }
+
+    FramePipeline(
+            final FrameSource<C> source,
+            final FrameTransform<C, P> transform,
+            final FrameSink<P> sink,
+            final FrameRecycler<C> capturedRecycler,
+            final FrameRecycler<P> preprocessedRecycler,
+            final int maxFramesInFlight,
+            final int numInferenceThreads) {
+        this.source = source;
+        this.transform = transform;
+        this.sink = sink;
+        this.capturedRecycler = capturedRecycler;
+        this.preprocessedRecycler = preprocessedRecycler;
+
+        framePermits = new Semaphore(maxFramesInFlight);
+        capturedFrames = new FrameQueue<>(1, frame -> {
+            capturedRecycler.recycle(frame);
+            framePermits.release();
+        });
+        preprocessedFrames = new FrameQueue<>(1, frame -> {
+            preprocessedRecycler.recycle(frame);
+            framePermits.release();
+        });
+
+        captureThread = new Thread(this::runCapture, "FrameCapture");
+        preprocessThread = new Thread(this::runPreprocess, "FramePreprocess");
+        inferenceThreads = new Thread[numInferenceThreads];
+        for (int i = 0; i < numInferenceThreads; ++i) {
+            inferenceThreads[i] = new Thread(this::runInference, "FrameInference-" + i);
+        }
+    }
+
+    void start() {
+        running = true;
+        captureThread.start();
+        preprocessThread.start();
+        for (Thread inferenceThread : inferenceThreads) {
+            inferenceThread.start();
+        }
+    }
+
+    /**
+     * Stops every stage and waits for its thread to exit, so that nothing the stages use, such as
+     * the recyclers' pools or the sink's detectors, is touched by the pipeline once this returns.
+     * Frames still queued are dropped; a frame being inferred is finished first.
+     */
+    void stop() {
+        running = false;
+        capturedFrames.close();
+        preprocessedFrames.close();
+        captureThread.interrupt();
+        preprocessThread.interrupt();
+        for (Thread inferenceThread : inferenceThreads) {
+            inferenceThread.interrupt();
+        }
+
+        boolean interrupted = false;
+        final Thread[] stageThreads = new Thread[inferenceThreads.length + 2];
+        stageThreads[0] = captureThread;
+        stageThreads[1] = preprocessThread;
+        System.arraycopy(inferenceThreads, 0, stageThreads, 2, inferenceThreads.length);
+        for (Thread thread : stageThreads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // Keep waiting; the stages must be gone before the caller tears down.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String getStatString() {
+        return "processed=" + processedCount.get()
+                + " dropped=" + (capturedFrames.getDroppedCount()
+                + preprocessedFrames.getDroppedCount())
+                + " lastInference=" + lastInferenceTimeMs + "ms";
+    }
+
+    private void runCapture() {
+        while (running) {
+            try {
+                framePermits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            C frame = null;
+            try {
+                frame = source.capture();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.d(TAG, "Capture failed: " + e.toString());
+                if (!sleepQuietly(RETRY_DELAY_MS)) {
+                    return;
+                }
+            }
+
+            if (frame == null) {
+                framePermits.release();
+                continue;
+            }
+            capturedFrames.offer(frame);
+        }
+    }
+
+    private void runPreprocess() {
+        while (running) {
+            final C frame;
+            try {
+                frame = capturedFrames.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == null) {
+                return;
+            }
+
+            P preprocessed = null;
+            try {
+                preprocessed = transform.apply(frame);
+            } catch (Exception e) {
+                Log.d(TAG, "Preprocessing failed: " + e.toString());
+            } finally {
+                capturedRecycler.recycle(frame);
+            }
+
+            if (preprocessed == null) {
+                framePermits.release();
+                continue;
+            }
+            preprocessedFrames.offer(preprocessed);
+        }
+    }
+
+    private void runInference() {
+        while (running) {
+            final P frame;
+            try {
+                frame = preprocessedFrames.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == null) {
+                return;
+            }
+
+            final long startTime = SystemClock.uptimeMillis();
+            try {
+                sink.accept(frame);
+            } catch (Exception e) {
+                Log.d(TAG, "Inference failed: " + e.toString());
+            } finally {
+                lastInferenceTimeMs = SystemClock.uptimeMillis() - startTime;
+                processedCount.incrementAndGet();
+                preprocessedRecycler.recycle(frame);
+                framePermits.release();
+            }
+        }
+    }
+
+    private static boolean sleepQuietly(final long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -18,16 +18,13 @@ package com.google.ar.sceneform.samples.hellosceneform;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Matrix;
+import android.content.pm.PackageManager;
 import android.graphics.RectF;
 import android.media.Image;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
@@ -36,14 +33,15 @@ import android.util.Size;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.MotionEvent;
-import android.view.PixelCopy;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.VideoView;
 
 import com.google.ar.core.Anchor;
+import com.google.ar.core.Frame;
 import com.google.ar.core.Pose;
+import com.google.ar.core.exceptions.NotYetAvailableException;
 import com.google.ar.sceneform.AnchorNode;
 import com.google.ar.sceneform.ArSceneView;
 import com.google.ar.sceneform.HitTestResult;
@@ -52,9 +50,15 @@ import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.ModelRenderable;
 import com.google.ar.sceneform.rendering.ViewRenderable;
 import com.google.ar.sceneform.samples.TensorFlow.Classifier;
+import com.google.ar.sceneform.samples.TensorFlow.ClassifierPool;
+import com.google.ar.sceneform.samples.TensorFlow.DetectionBuffer;
+import com.google.ar.sceneform.samples.TensorFlow.LabelTable;
+import com.google.ar.sceneform.samples.TensorFlow.ModelRegistry;
 import com.google.ar.sceneform.samples.TensorFlow.TensorFlowMultiBoxDetector;
 import com.google.ar.sceneform.samples.TensorFlow.TensorFlowObjectDetectionAPIModel;
 import com.google.ar.sceneform.samples.TensorFlow.TensorFlowYoloDetector;
+import com.google.ar.sceneform.samples.TensorFlow.YoloModelDescriptor;
+import com.google.ar.sceneform.samples.TensorFlow.env.SceneChangeGate;
 import com.google.ar.sceneform.samples.TensorFlow.tracking.MultiBoxTracker;
 import com.google.ar.sceneform.ux.ArFragment;
 import com.google.ar.sceneform.ux.TransformableNode;
@@ -64,8 +68,15 @@ import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is an example activity that uses the Sceneform UX package to make common AR tasks easier.
@@ -83,11 +94,55 @@ public class HelloSceneformActivity extends AppCompatActivity {
     public ArrayList<String > itemsDisplayed = new ArrayList<>(Arrays.asList("tv","keyboard",
             "cup"));
 
+    // Whether each of itemsDisplayed is still to be placed. Only touched on the UI thread.
+    private boolean[] itemsPending;
+
     private MultiBoxTracker tracker;
-    private Classifier detector;
+    // Independent detector instances, one per inference thread, so that frames are inferred
+    // concurrently on devices with cores to spare. TensorFlow already spreads each inference over
+    // several threads, so only large devices get more than one.
+    private static final int DETECTOR_POOL_SIZE =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 4));
+    // The detector frames are currently sent to, replaced as a whole by switchDetector().
+    private final AtomicReference<ActiveDetector> activeDetector = new AtomicReference<>();
+    // Part of this activity's model registry keys, so that no two activities share instances. A
+    // detector survives a configuration change by being handed over, not through the registry.
+    private static final AtomicInteger nextActivityId = new AtomicInteger();
+    private final int activityId = nextActivityId.getAndIncrement();
+    // Serializes activating, switching and retiring detectors, and committing inferred frames to
+    // the scene change gate. Not the activity's own monitor, which onPreviewSizeChosen holds while
+    // waiting for the first detector to activate.
+    private final Object detectorLock = new Object();
+    // Modes being loaded, guarded by detectorLock. A mode is only loaded while it is neither active
+    // nor loading, so each set of model instances backs a single ActiveDetector, and retiring one
+    // never closes instances another still uses.
+    private final Set<DetectorMode> loadingModes = EnumSet.noneOf(DetectorMode.class);
+    // Set once onDestroy has retired the active detector, or it has been handed to the activity
+    // recreated for a configuration change; detectors loaded later are retired at once. Guarded by
+    // detectorLock.
+    private boolean destroyed;
+    // The active detector as handed to the recreated activity, which closes it instead of this
+    // one. Guarded by detectorLock.
+    private ActiveDetector handedOverDetector;
+    // Loaded in the background from onCreate; the first inference thread to get a frame waits for
+    // it.
+    private CompletableFuture<Void> initialDetectorLoad;
+    private volatile boolean detectorFailed;
+    // The mode most recently asked for, so that only the latest of overlapping switches wins.
+    // Guarded by detectorLock.
+    private DetectorMode requestedMode = DEFAULT_MODE;
+    private int warmUpWidth;
+    private int warmUpHeight;
+
+    // Inferences run on a synthetic frame before the detector is handed out, so that the first
+    // real frame does not pay for TensorFlow's session initialization.
+    private static final int DETECTOR_WARM_UP_RUNS = 2;
+
+    // Time from onCreate until the first frame has been through the detector, or -1 before then.
+    private long startTimeMs;
+    private volatile long timeToFirstDetectionMs = -1;
     private static final float TEXT_SIZE_DIP = 24;
 
-    private static final int MB_INPUT_SIZE = 300;
     private static final int MB_IMAGE_MEAN = 128;
     private static final float MB_IMAGE_STD = 128;
     private static final String MB_INPUT_NAME = "ResizeBilinear";
@@ -103,22 +158,114 @@ public class HelloSceneformActivity extends AppCompatActivity {
     private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/coco_labels_list" +
             ".txt";
 
-    private Boolean loop = true;
-
-    static int cropSize = TF_OD_API_INPUT_SIZE;
-
     private static final String YOLO_MODEL_FILE = "file:///android_asset/graph-tiny-yolo-voc.pb";
-    private static final int YOLO_INPUT_SIZE = 300;
+    private static final String YOLO_DESCRIPTOR_FILE = "file:///android_asset/tiny-yolo-voc.txt";
     private static final String YOLO_INPUT_NAME = "input";
     private static final String YOLO_OUTPUT_NAMES = "output";
-    private static final int YOLO_BLOCK_SIZE = 32;
-    final HandlerThread handlerThread = new HandlerThread("PixelCopier");
 
-    private enum DetectorMode {
-        TF_OD_API, MULTIBOX, YOLO;
+    // Frames allowed between capture and the end of inference; one being inferred per detector
+    // and one being prepared behind them.
+    private static final int MAX_FRAMES_IN_FLIGHT = DETECTOR_POOL_SIZE + 1;
+    private FramePipeline<Image, CameraFrame> framePipeline;
+    private final Queue<CameraFrame> spareCameraFrames = new ConcurrentLinkedQueue<>();
+
+    // Clockwise rotation of the camera sensor from the device's natural orientation, as on the
+    // phones ARCore supports. Together with the display rotation it turns camera images upright.
+    private static final int SENSOR_ORIENTATION = 90;
+    // Set on the UI thread along with each camera image, read by the preprocessing thread.
+    private volatile int cameraImageRotation;
+    private volatile int sceneViewWidth;
+    private volatile int sceneViewHeight;
+
+    // Frames are sampled for scene changes at a fixed short interval. Changed frames are inferred
+    // at most once per inference interval, which stays within the bounds below, respects the
+    // fraction of each detector's time detection may take, and stretches as motion drops.
+    private static final long SAMPLE_INTERVAL_MS = 100;
+    private static final long DETECTION_MIN_INTERVAL_MS = 50;
+    private static final long DETECTION_MAX_INTERVAL_MS = 500;
+    private static final float DETECTION_CPU_BUDGET = 0.6f;
+    private final DetectionScheduler detectionScheduler = new DetectionScheduler(
+            SAMPLE_INTERVAL_MS, DETECTION_MIN_INTERVAL_MS, DETECTION_MAX_INTERVAL_MS,
+            DETECTION_CPU_BUDGET, DETECTOR_POOL_SIZE);
+
+    // Frames whose 16x16 luma signature differs from that of the last inferred frame by less
+    // than the first threshold on average, and less than the second in every cell, skip
+    // inference, leaving the previous results in place. The cell threshold sits above the cell
+    // differences that strong sensor noise gives, and below those of an object a twentieth of the
+    // frame wide. The gate also provides the motion score the scheduler paces inference by.
+    private static final int SCENE_GRID_SIZE = 16;
+    private static final float SCENE_CHANGE_THRESHOLD = 0.01f;
+    private static final float SCENE_CELL_CHANGE_THRESHOLD = 0.08f;
+    private final SceneChangeGate sceneChangeGate = new SceneChangeGate(
+            SCENE_GRID_SIZE, SCENE_CHANGE_THRESHOLD, SCENE_CELL_CHANGE_THRESHOLD);
+
+    enum DetectorMode {
+        TF_OD_API(MINIMUM_CONFIDENCE_TF_OD_API),
+        MULTIBOX(MINIMUM_CONFIDENCE_MULTIBOX),
+        YOLO(MINIMUM_CONFIDENCE_YOLO);
+
+        final float minimumConfidence;
+
+        DetectorMode(final float minimumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+        }
     }
 
-    private static final DetectorMode MODE = DetectorMode.TF_OD_API;
+    private static final DetectorMode DEFAULT_MODE = DetectorMode.TF_OD_API;
+
+    /**
+     * A detector pool together with everything that depends on which model it runs, so that a
+     * frame is interpreted with the settings of the detector that produced it.
+     */
+    private static final class ActiveDetector {
+        final DetectorMode mode;
+        final ClassifierPool pool;
+        // Side of the model input, and so the range of detected locations.
+        final int cropSize;
+        final float minimumConfidence;
+
+        // Class ids of the labels the scene reacts to, and the index in itemsDisplayed of each
+        // class id, so that detections are matched by id rather than by title.
+        final int cupId;
+        final int keyboardId;
+        final int bookId;
+        final int tvId;
+        private final int[] itemIndices;
+
+        ActiveDetector(
+                final DetectorMode mode,
+                final ClassifierPool pool,
+                final int cropSize,
+                final List<String> items) {
+            this.mode = mode;
+            this.pool = pool;
+            this.cropSize = cropSize;
+            this.minimumConfidence = mode.minimumConfidence;
+
+            final LabelTable labels = pool.getLabels();
+            cupId = labels.idOf("cup");
+            keyboardId = labels.idOf("keyboard");
+            bookId = labels.idOf("book");
+            tvId = labels.idOf("tv");
+            itemIndices = new int[labels.size()];
+            Arrays.fill(itemIndices, -1);
+            for (int i = 0; i < items.size(); ++i) {
+                final int id = labels.idOf(items.get(i));
+                if (id != LabelTable.NO_ID) {
+                    itemIndices[id] = i;
+                }
+            }
+        }
+
+        /** Returns the index in itemsDisplayed of the given class, or -1. */
+        int itemIndex(final int classId) {
+            return classId >= 0 && classId < itemIndices.length ? itemIndices[classId] : -1;
+        }
+    }
+
+    // Inputs at least this large are preprocessed in parallel row stripes; smaller ones such as
+    // 224x224 classifier inputs stay serial.
+    private static final int PARALLEL_PREPROCESS_MIN_PIXELS = 256 * 256;
 
     // Minimum detection confidence to track a detection.
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
@@ -129,7 +276,46 @@ public class HelloSceneformActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        loop = false;
+        // Joins the pipeline threads, so that no capture can still take or return a bitmap when
+        // the pool is cleared below.
+        if (framePipeline != null) {
+            framePipeline.stop();
+        }
+        // No frame holds a lease any more, so the detector closes without waiting.
+        final ActiveDetector detector;
+        final boolean handedOver;
+        synchronized (detectorLock) {
+            destroyed = true;
+            detector = activeDetector.getAndSet(null);
+            handedOver = detector != null && detector == handedOverDetector;
+        }
+        if (detector != null) {
+            Log.i(TAG, "Detector pool: " + detector.pool.getStatString());
+            removeModelKeys(detector.mode);
+        }
+        if (detector != null && !handedOver) {
+            try {
+                detector.pool.retire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Log.i(TAG, "Detection scheduler: " + detectionScheduler.getStatString());
+        Log.i(TAG, "Scene change gate: " + sceneChangeGate.getStatString());
+    }
+
+    /**
+     * Hands the loaded detector to the activity recreated for a configuration change, so that it
+     * neither closes here nor loads again there. From here on this activity activates nothing
+     * else; a detector still loading is retired once loaded, and the new activity loads its own.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        synchronized (detectorLock) {
+            destroyed = true;
+            handedOverDetector = activeDetector.get();
+            return handedOverDetector;
+        }
     }
 
     @Override
@@ -143,6 +329,30 @@ public class HelloSceneformActivity extends AppCompatActivity {
             return;
         }
 
+        startTimeMs = SystemClock.uptimeMillis();
+
+        // Frames are captured at the size of the display, so warm up at that size too.
+        final DisplayMetrics displayMetrics = new DisplayMetrics();
+        getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
+        warmUpWidth = displayMetrics.widthPixels;
+        warmUpHeight = displayMetrics.heightPixels;
+        itemsPending = new boolean[itemsDisplayed.size()];
+        Arrays.fill(itemsPending, true);
+        synchronized (detectorLock) {
+            final ActiveDetector handedOver =
+                    (ActiveDetector) getLastCustomNonConfigurationInstance();
+            if (handedOver != null) {
+                // Recreated for a configuration change: carry on with the previous activity's
+                // detector, which it no longer uses.
+                requestedMode = handedOver.mode;
+                activeDetector.set(new ActiveDetector(
+                        handedOver.mode, handedOver.pool, handedOver.cropSize, itemsDisplayed));
+                initialDetectorLoad = CompletableFuture.completedFuture(null);
+            } else {
+                initialDetectorLoad = startDetectorLoad(DEFAULT_MODE);
+            }
+        }
+
         setContentView(R.layout.activity_ux);
         arFragment = (ArFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
 
@@ -192,80 +402,111 @@ public class HelloSceneformActivity extends AppCompatActivity {
                         });
 
 
-        Thread r = new Thread() {
-            public void run() {
-                handlerThread.start();
-
-                while (loop) {
-                    try {
-
-
-                        ArSceneView view = arFragment.getArSceneView();
-
-                        // Create a bitmap the size of the scene view.
-
-                        final Bitmap bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(),
-                                Bitmap.Config.ARGB_8888);
-
-                        PixelCopy.request(view, bitmap, (copyResult) -> {
-
-                            if (copyResult == PixelCopy.SUCCESS) {
-
-
-                                processImage(getResizedBitmap(bitmap, cropSize, cropSize));
-                            } else {
-
-                            }
-
-                        }, new Handler(handlerThread.getLooper()));
-
-
-                        if (detector == null) {
-                            DisplayMetrics displayMetrics = new DisplayMetrics();
-                            getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
-                            int height = displayMetrics.heightPixels;
-                            int width = displayMetrics.widthPixels;
-
-                            HelloSceneformActivity.this.onPreviewSizeChosen(new Size(width, height),
-                                    90);
-                        }
-                        try {
-                            sleep(1000);
-                        } catch (InterruptedException e1) {
-                            e1.printStackTrace();
+        framePipeline = new FramePipeline<>(
+                this::captureFrame,
+                this::readFrame,
+                frame -> {
+                    if (activeDetector.get() == null) {
+                        if (detectorFailed) {
+                            return;
                         }
-                    } catch (Exception e) {
-                        Log.d("testing Exception", e.toString());
+                        int height = displayMetrics.heightPixels;
+                        int width = displayMetrics.widthPixels;
 
-                        try {
-                            sleep(500);
-                        } catch (InterruptedException e1) {
-                            e1.printStackTrace();
+                        onPreviewSizeChosen(new Size(width, height), 90);
+                        if (activeDetector.get() == null) {
+                            return;
                         }
                     }
-                }
-            }
-        };
+                    processImage(frame);
+                },
+                Image::close,
+                spareCameraFrames::add,
+                MAX_FRAMES_IN_FLIGHT,
+                DETECTOR_POOL_SIZE);
+        framePipeline.start();
+    }
 
+    /**
+     * Waits until the scheduler says the next frame is due to be sampled, then acquires the
+     * latest camera image on the UI thread, which updates the ARCore frame. Returns null if there
+     * is no image yet, or the activity is going away.
+     */
+    private Image captureFrame() throws InterruptedException, ExecutionException {
+        detectionScheduler.awaitSampleSlot();
 
-        r.start();
+        final CompletableFuture<Image> acquired = new CompletableFuture<>();
+        runOnUiThread(() -> {
+            try {
+                final ArSceneView view = arFragment.getArSceneView();
+                final Frame arFrame = isDestroyed() ? null : view.getArFrame();
+                if (arFrame == null) {
+                    acquired.complete(null);
+                    return;
+                }
+                final int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+                // Surface.ROTATION_* count quarter turns counterclockwise.
+                cameraImageRotation = (SENSOR_ORIENTATION - 90 * displayRotation + 360) % 360;
+                sceneViewWidth = view.getWidth();
+                sceneViewHeight = view.getHeight();
+                acquired.complete(arFrame.acquireCameraImage());
+            } catch (final NotYetAvailableException e) {
+                acquired.complete(null);
+            } catch (final RuntimeException e) {
+                acquired.completeExceptionally(e);
+            }
+        });
+        try {
+            return acquired.get();
+        } catch (final InterruptedException e) {
+            // Nobody is left to close the image once the UI thread has acquired it.
+            acquired.thenAccept(image -> {
+                if (image != null) {
+                    image.close();
+                }
+            });
+            throw e;
+        } catch (final ExecutionException e) {
+            // Rethrow what went wrong on the UI thread, for the pipeline to log and retry.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
     }
 
-    public static Bitmap getResizedBitmap(Bitmap bm, int newWidth, int newHeight) {
-        int width = bm.getWidth();
-        int height = bm.getHeight();
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        // CREATE A MATRIX FOR THE MANIPULATION
-        Matrix matrix = new Matrix();
-        // RESIZE THE BIT MAP
-        matrix.postScale(scaleWidth, scaleHeight);
-
-        // "RECREATE" THE NEW BITMAP
-        Bitmap resizedBitmap = Bitmap.createBitmap(
-                bm, 0, 0, width, height, matrix, false);
-        bm.recycle();
-        return resizedBitmap;
+    /**
+     * Copies a camera image into a reusable frame, cropped to what the scene view shows and
+     * rotated upright. The detector converts only the pixels it samples for the model input, so
+     * no ARGB copy of the image is made. Returns null, skipping inference, if the scene has not
+     * changed enough since the last detection, or if it has but the next inference is not due
+     * yet. In that case the change stays pending for a later frame.
+     */
+    private CameraFrame readFrame(Image image) {
+        CameraFrame frame = spareCameraFrames.poll();
+        if (frame == null) {
+            frame = new CameraFrame();
+        }
+        frame.yuv.copyFrom(image).setRotation(cameraImageRotation);
+        if (sceneViewWidth > 0 && sceneViewHeight > 0) {
+            // The scene view scales the camera image to fill it, showing only the middle.
+            frame.yuv.cropToAspect(sceneViewWidth, sceneViewHeight);
+        }
+
+        if (frame.signature == null) {
+            frame.signature = sceneChangeGate.newSignature();
+        }
+        boolean changed = sceneChangeGate.shouldInfer(frame.yuv, frame.signature);
+        detectionScheduler.onFrameMotion(sceneChangeGate.getFrameMotion());
+        if (changed && !detectionScheduler.tryStartDetection()) {
+            sceneChangeGate.countThrottled();
+            changed = false;
+        }
+        if (!changed) {
+            spareCameraFrames.add(frame);
+            return null;
+        }
+        return frame;
     }
 
     private static byte[] YUV_420_888toNV21(Image image) {
@@ -320,37 +561,57 @@ public class HelloSceneformActivity extends AppCompatActivity {
         return true;
     }
 
+    public void processImage(CameraFrame frame) {
+        while (true) {
+            final ActiveDetector detector = activeDetector.get();
+            final ClassifierPool.Lease lease;
+            try {
+                lease = detector.pool.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (lease == null) {
+                // Retired by a switch, which has already made its replacement active.
+                continue;
+            }
+            try {
+                processImage(frame, detector, lease.getClassifier());
+            } finally {
+                lease.close();
+            }
+            return;
+        }
+    }
 
-    public void processImage(Bitmap croppedBitmap) {
+    private void processImage(CameraFrame frame, ActiveDetector detector, Classifier classifier) {
 
         final long startTime = SystemClock.uptimeMillis();
-        if (croppedBitmap == null) {
 
+        final DetectionBuffer results = classifier.detect(frame.yuv);
+        synchronized (detectorLock) {
+            if (activeDetector.get() == detector) {
+                // Frames like this one can skip inference from now on. Not after a switch, which
+                // wants the new model to see the scene.
+                sceneChangeGate.commit(frame.signature);
+            }
         }
-
-        final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
         final long lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-
-        float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-        switch (MODE) {
-            case TF_OD_API:
-                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                break;
-            case MULTIBOX:
-                minimumConfidence = MINIMUM_CONFIDENCE_MULTIBOX;
-                break;
-            case YOLO:
-                minimumConfidence = MINIMUM_CONFIDENCE_YOLO;
-                break;
+        detectionScheduler.onDetectionFinished(lastProcessingTimeMs);
+        if (timeToFirstDetectionMs < 0) {
+            recordFirstDetection();
         }
 
-        final List<Classifier.Recognition> mappedRecognitions =
-                new LinkedList<Classifier.Recognition>();
+        final float minimumConfidence = detector.minimumConfidence;
+        final int cropSize = detector.cropSize;
 
-        for (final Classifier.Recognition result : results) {
-            final RectF location = result.getLocation();
-            if (location != null && result.getConfidence() >= minimumConfidence) {
+        for (int i = 0; i < results.size(); ++i) {
+            if (results.hasLocation(i) && results.getScore(i) >= minimumConfidence) {
+                // Copied out of the detector's buffer, which the next frame overwrites.
+                final RectF location = results.getLocation(i, new RectF());
+                final String title = results.getTitle(i);
+                final int classId = results.getClassId(i);
+                final int itemIndex = detector.itemIndex(classId);
 
 
                 runOnUiThread(new Runnable() {
@@ -359,8 +620,7 @@ public class HelloSceneformActivity extends AppCompatActivity {
                         try {
 
 
-                            if (itemsDisplayed.contains("cup") && result.getTitle().trim()
-                                    .toLowerCase().equals("cup")){
+                            if (classId == detector.cupId && isItemPending(itemIndex)){
 
                                 Log.d("testing", "run: Cup");
 
@@ -375,7 +635,6 @@ public class HelloSceneformActivity extends AppCompatActivity {
                                             imageView.setScaleType(ImageView.ScaleType.FIT_XY);
 
 
-                                            result.setLocation(location);
                                             Pose temp = Pose.makeRotation(0, 0, 0, 0);
 
                                             final Pose air = Pose.makeTranslation((location.centerX() -
@@ -415,8 +674,7 @@ public class HelloSceneformActivity extends AppCompatActivity {
                                             tNode.setParent(anchorNode);
                                             tNode.setRenderable(renderable);
                                             tNode.select();
-                                            itemsDisplayed.remove(result.getTitle().trim()
-                                                    .toLowerCase());
+                                            itemsPending[itemIndex] = false;
 
                                         });
 
@@ -424,7 +682,7 @@ public class HelloSceneformActivity extends AppCompatActivity {
 
                             }
 
-                            if (itemsDisplayed.contains(result.getTitle().trim().toLowerCase())){
+                            if (isItemPending(itemIndex)){
 
 
                                 ViewRenderable.builder()
@@ -434,7 +692,7 @@ public class HelloSceneformActivity extends AppCompatActivity {
 
                                             TextView textView = (TextView) renderable.getView();
 
-                                            textView.setText("Buy a new " + result.getTitle().trim()
+                                            textView.setText("Buy a new " + title.trim()
                                                     .toUpperCase()+ " Today!");
 
                                             Log.d("testing", "run: " + location.centerX() +
@@ -442,7 +700,6 @@ public class HelloSceneformActivity extends AppCompatActivity {
                                                     location.centerY());
 
 
-                                            result.setLocation(location);
                                             Pose temp = Pose.makeRotation(0, 0, 0, 0);
 
                                             final Pose air = Pose.makeTranslation((location.centerX() -
@@ -481,8 +738,7 @@ public class HelloSceneformActivity extends AppCompatActivity {
                                             tNode.setParent(anchorNode);
                                             tNode.setRenderable(renderable);
                                             tNode.select();
-                                            itemsDisplayed.remove(result.getTitle().trim()
-                                                    .toLowerCase());
+                                            itemsPending[itemIndex] = false;
 
                                         });
 
@@ -492,141 +748,309 @@ public class HelloSceneformActivity extends AppCompatActivity {
 
 
 
-                            switch (result.getTitle().trim().toLowerCase()) {
+                            if (classId == detector.keyboardId) {
+                                if (lapTopRenderable != null) {
+                                    Pose temp = Pose.makeRotation(0, 0, 0, 0);
+
+                                    final Pose air = Pose.makeTranslation((location.centerX() -
+                                                    (cropSize
+                                                            / 2))
+                                                    / cropSize,
+                                            (location
+                                                    .centerY() - (cropSize / 2)) / cropSize,
+                                            -0.75f);
+                                    final Pose newPose = air.compose(temp);
+
+
+                                    Anchor anchor = arFragment.getArSceneView().getSession()
+                                            .createAnchor
+                                                    (newPose);
+                                    AnchorNode anchorNode = new AnchorNode(anchor);
+                                    anchorNode.setParent(arFragment.getArSceneView().getScene
+                                            ());
+
+
+                                    // Create the transformable andy and add it to the anchor.
+                                    TransformableNode tNode = new TransformableNode(arFragment
+                                            .getTransformationSystem());
+                                    tNode.getScaleController().setMinScale(0.1f);
+                                    tNode.getScaleController().setMaxScale(0.5f);
+                                    tNode.setOnTapListener(new Node.OnTapListener() {
+                                        @Override
+                                        public void onTap(HitTestResult hitTestResult,
+                                                          MotionEvent
+                                                motionEvent) {
+                                            Log.d("testing ", "onTap: destroy ");
+                                            anchor.detach();
+                                        }
+                                    });
+                                    Log.d("testing detection image", title + 4);
+
+                                    tNode.setLocalScale(new Vector3(0.25f, 0.25f, 0.25f));
+                                    tNode.setParent(anchorNode);
+                                    tNode.setRenderable(lapTopRenderable);
+                                    tNode.select();
+                                    Log.d("testing detection image", title + 5);
+
+                                    lapTopRenderable = null;
+
+                                }
+
+                            } else if (classId == detector.bookId || classId == detector.tvId) {
+                                if (remoteRenderable != null) {
+                                    Pose temp = Pose.makeRotation(0, 0, 0, 0);
+
+                                    final Pose air = Pose.makeTranslation((location.centerX() -
+                                                    (cropSize
+                                                            / 2))
+                                                    / cropSize,
+                                            (location
+                                                    .centerY() - (cropSize / 2)) / cropSize,
+                                            -0.75f);
+                                    final Pose newPose = air.compose(temp);
+
+
+                                    Anchor anchor = arFragment.getArSceneView().getSession()
+                                            .createAnchor
+                                                    (newPose);
+                                    AnchorNode anchorNode = new AnchorNode(anchor);
+                                    anchorNode.setParent(arFragment.getArSceneView().getScene());
+
+
+                                    // Create the transformable andy and add it to the anchor.
+                                    TransformableNode tNode = new TransformableNode(arFragment
+                                            .getTransformationSystem());
+                                    tNode.getScaleController().setMinScale(0.1f);
+                                    tNode.getScaleController().setMaxScale(0.5f);
+                                    tNode.setOnTapListener(new Node.OnTapListener() {
+                                        @Override
+                                        public void onTap(HitTestResult hitTestResult, MotionEvent
+                                                motionEvent) {
+                                            Log.d("testing ", "onTap: destroy ");
+                                            anchor.detach();
+                                        }
+                                    });
+                                    tNode.setLocalScale(new Vector3(0.5f, 0.5f, 0.5f));
+                                    tNode.setParent(anchorNode);
+                                    tNode.setRenderable(remoteRenderable);
+                                    tNode.select();
+                                    remoteRenderable = null;
+
+                                }
 
+                            }
 
-                                case "keyboard":
-                                    if (lapTopRenderable != null) {
-                                        result.setLocation(location);
-                                        Pose temp = Pose.makeRotation(0, 0, 0, 0);
-
-                                        final Pose air = Pose.makeTranslation((location.centerX() -
-                                                        (cropSize
-                                                                / 2))
-                                                        / cropSize,
-                                                (location
-                                                        .centerY() - (cropSize / 2)) / cropSize,
-                                                -0.75f);
-                                        final Pose newPose = air.compose(temp);
+                        } catch (Exception e) {
 
+                            Log.d(TAG, "Error" + e.toString());
+                        }
+                    }
+                });
+            }
+        }
+    }
 
-                                        Anchor anchor = arFragment.getArSceneView().getSession()
-                                                .createAnchor
-                                                        (newPose);
-                                        AnchorNode anchorNode = new AnchorNode(anchor);
-                                        anchorNode.setParent(arFragment.getArSceneView().getScene
-                                                ());
+    private synchronized void recordFirstDetection() {
+        if (timeToFirstDetectionMs < 0) {
+            timeToFirstDetectionMs = SystemClock.uptimeMillis() - startTimeMs;
+            Log.i(TAG, "Time to first detection: " + timeToFirstDetectionMs + "ms");
+        }
+    }
 
+    public synchronized void onPreviewSizeChosen(final Size size, final int rotation) {
+        if (activeDetector.get() != null || detectorFailed) {
+            return;
+        }
+        final float textSizePx =
+                TypedValue.applyDimension(
+                        TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources()
+                                .getDisplayMetrics());
 
-                                        // Create the transformable andy and add it to the anchor.
-                                        TransformableNode tNode = new TransformableNode(arFragment
-                                                .getTransformationSystem());
-                                        tNode.getScaleController().setMinScale(0.1f);
-                                        tNode.getScaleController().setMaxScale(0.5f);
-                                        tNode.setOnTapListener(new Node.OnTapListener() {
-                                            @Override
-                                            public void onTap(HitTestResult hitTestResult,
-                                                              MotionEvent
-                                                    motionEvent) {
-                                                Log.d("testing ", "onTap: destroy ");
-                                                anchor.detach();
-                                            }
-                                        });
-                                        Log.d("testing detection image", result.getTitle() + 4);
-
-                                        tNode.setLocalScale(new Vector3(0.25f, 0.25f, 0.25f));
-                                        tNode.setParent(anchorNode);
-                                        tNode.setRenderable(lapTopRenderable);
-                                        tNode.select();
-                                        Log.d("testing detection image", result.getTitle() + 5);
-
-                                        lapTopRenderable = null;
-
-                                    }
-
-                                    break;
-
-
-                                case "book":
-                                case "tv":
-                                    if (remoteRenderable != null) {
-                                        result.setLocation(location);
-                                        Pose temp = Pose.makeRotation(0, 0, 0, 0);
-
-                                        final Pose air = Pose.makeTranslation((location.centerX() -
-                                                        (cropSize
-                                                                / 2))
-                                                        / cropSize,
-                                                (location
-                                                        .centerY() - (cropSize / 2)) / cropSize,
-                                                -0.75f);
-                                        final Pose newPose = air.compose(temp);
-
-
-                                        Anchor anchor = arFragment.getArSceneView().getSession()
-                                                .createAnchor
-                                                        (newPose);
-                                        AnchorNode anchorNode = new AnchorNode(anchor);
-                                        anchorNode.setParent(arFragment.getArSceneView().getScene());
-
-
-                                        // Create the transformable andy and add it to the anchor.
-                                        TransformableNode tNode = new TransformableNode(arFragment
-                                                .getTransformationSystem());
-                                        tNode.getScaleController().setMinScale(0.1f);
-                                        tNode.getScaleController().setMaxScale(0.5f);
-                                        tNode.setOnTapListener(new Node.OnTapListener() {
-                                            @Override
-                                            public void onTap(HitTestResult hitTestResult, MotionEvent
-                                                    motionEvent) {
-                                                Log.d("testing ", "onTap: destroy ");
-                                                anchor.detach();
-                                            }
-                                        });
-                                        tNode.setLocalScale(new Vector3(0.5f, 0.5f, 0.5f));
-                                        tNode.setParent(anchorNode);
-                                        tNode.setRenderable(remoteRenderable);
-                                        tNode.select();
-                                        remoteRenderable = null;
+        if (tracker == null) {
+            tracker = new MultiBoxTracker(getApplicationContext());
+        }
 
-                                    }
-                                    break;
+        try {
+            initialDetectorLoad.get();
+        } catch (final ExecutionException e) {
+            Log.e(TAG, "Classifier could not be initialized", e.getCause());
+            detectorFailed = true;
+            runOnUiThread(() -> Toast.makeText(
+                    getApplicationContext(), "Classifier could not be initialized",
+                    Toast.LENGTH_SHORT).show());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                            }
+    /**
+     * Switches detection to another model, e.g. a cheaper one while the device is throttling. The
+     * new detector is loaded and warmed up in the background while frames keep going to the
+     * current one; it then replaces the current one in a single step, and the old one is closed
+     * once the frames it is still processing are done.
+     */
+    public void switchDetector(final DetectorMode mode) {
+        synchronized (detectorLock) {
+            if (mode == requestedMode || destroyed) {
+                return;
+            }
+            requestedMode = mode;
+            final ActiveDetector current = activeDetector.get();
+            if ((current != null && current.mode == mode) || loadingModes.contains(mode)) {
+                // Back to the active model, or to one still loading, before the other one
+                // finished loading.
+                return;
+            }
+            startDetectorLoad(mode).exceptionally(throwable -> {
+                Log.e(TAG, "Could not switch to " + mode + " detector", throwable);
+                synchronized (detectorLock) {
+                    final ActiveDetector active = activeDetector.get();
+                    if (requestedMode == mode && active != null) {
+                        requestedMode = active.mode;
+                    }
+                }
+                runOnUiThread(() -> Toast.makeText(
+                        getApplicationContext(), "Classifier could not be initialized",
+                        Toast.LENGTH_SHORT).show());
+                return null;
+            });
+        }
+    }
 
-                        } catch (Exception e) {
+    /** Returns the mode of the detector frames currently go to, or null before the first load. */
+    public DetectorMode getDetectorMode() {
+        final ActiveDetector detector = activeDetector.get();
+        return detector != null ? detector.mode : null;
+    }
 
-                            Log.d(TAG, "Error" + e.toString());
+    /**
+     * Loads a detector for {@code mode} and activates it once loaded. Called with detectorLock
+     * held.
+     */
+    private CompletableFuture<Void> startDetectorLoad(final DetectorMode mode) {
+        loadingModes.add(mode);
+        return loadDetector(mode)
+                .whenComplete((detector, throwable) -> {
+                    if (throwable != null) {
+                        synchronized (detectorLock) {
+                            loadingModes.remove(mode);
                         }
                     }
+                })
+                .thenAccept(this::activateDetector);
+    }
+
+    /** Loads and warms up a pool of detectors for {@code mode} through the model registry. */
+    private CompletableFuture<ActiveDetector> loadDetector(final DetectorMode mode) {
+        final List<CompletableFuture<Classifier>> detectors = new ArrayList<>(DETECTOR_POOL_SIZE);
+        for (int i = 0; i < DETECTOR_POOL_SIZE; ++i) {
+            detectors.add(ModelRegistry.getInstance().load(
+                    getModelKey(mode, i),
+                    () -> createDetector(mode),
+                    DETECTOR_WARM_UP_RUNS,
+                    warmUpWidth,
+                    warmUpHeight));
+        }
+        return CompletableFuture.allOf(detectors.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    final List<Classifier> classifiers = new ArrayList<>(detectors.size());
+                    for (CompletableFuture<Classifier> detector : detectors) {
+                        classifiers.add(detector.join());
+                    }
+                    return new ActiveDetector(
+                            mode,
+                            new ClassifierPool(classifiers),
+                            classifiers.get(0).getInputSize(),
+                            itemsDisplayed);
                 });
+    }
 
+    private void activateDetector(final ActiveDetector next) {
+        final ActiveDetector previous;
+        synchronized (detectorLock) {
+            loadingModes.remove(next.mode);
+            if (destroyed || next.mode != requestedMode) {
+                // Finished loading after onDestroy, or superseded by a later switch while loading.
+                retireDetector(next);
+                return;
+            }
+            // Never the same mode: a mode is not loaded while it is active.
+            previous = activeDetector.getAndSet(next);
+            // Run the new model on the next frame even if the scene has not changed.
+            sceneChangeGate.reset();
+        }
+        Log.i(TAG, "Switched to " + next.mode + " detector");
+        if (previous != null) {
+            retireDetector(previous);
+        }
+    }
 
-                mappedRecognitions.add(result);
+    /**
+     * Closes a detector that no longer receives frames once the frames it is processing are done.
+     * Waits on its own thread, so that neither the caller nor model loading is held up.
+     */
+    private void retireDetector(final ActiveDetector detector) {
+        removeModelKeys(detector.mode);
+        new Thread(() -> {
+            try {
+                detector.pool.retire();
+                Log.i(TAG, "Closed " + detector.mode + " detector: "
+                        + detector.pool.getStatString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }, "DetectorRetire").start();
+    }
+
+    /** Makes the registry forget this activity's instances of {@code mode} before they close. */
+    private void removeModelKeys(final DetectorMode mode) {
+        for (int i = 0; i < DETECTOR_POOL_SIZE; ++i) {
+            ModelRegistry.getInstance().remove(getModelKey(mode, i));
         }
     }
 
-    public void onPreviewSizeChosen(final Size size, final int rotation) {
-        final float textSizePx =
-                TypedValue.applyDimension(
-                        TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources()
-                                .getDisplayMetrics());
+    private String getModelKey(final DetectorMode mode, final int instance) {
+        return mode.name() + "#" + instance + "@" + activityId;
+    }
+
+    /** Returns the size, wait times and utilization of the detector pool, or null before load. */
+    public String getDetectorPoolStatString() {
+        final ActiveDetector detector = activeDetector.get();
+        return detector != null ? detector.pool.getStatString() : null;
+    }
+
+    /** Returns the milliseconds from onCreate until the first detection, or -1 before then. */
+    public long getTimeToFirstDetectionMs() {
+        return timeToFirstDetectionMs;
+    }
 
-        tracker = new MultiBoxTracker(getApplicationContext());
+    /**
+     * Returns when the app was last installed or updated, which is the last time its assets could
+     * have changed.
+     */
+    private long getAssetVersion() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException("Own package not found", e);
+        }
+    }
 
-        if (MODE == DetectorMode.YOLO) {
-            detector =
+    /** Creates and configures a detector for {@code mode}. Runs on the model loader thread. */
+    private Classifier createDetector(final DetectorMode mode) throws IOException {
+        final Classifier classifier;
+        if (mode == DetectorMode.YOLO) {
+            final YoloModelDescriptor descriptor = YoloModelDescriptor.load(
+                    getApplicationContext().getAssets(), YOLO_DESCRIPTOR_FILE);
+            classifier =
                     TensorFlowYoloDetector.create(
                             getApplicationContext().getAssets(),
                             YOLO_MODEL_FILE,
-                            YOLO_INPUT_SIZE,
+                            descriptor,
                             YOLO_INPUT_NAME,
-                            YOLO_OUTPUT_NAMES,
-                            YOLO_BLOCK_SIZE);
-            cropSize = YOLO_INPUT_SIZE;
-        } else if (MODE == DetectorMode.MULTIBOX) {
-            detector =
+                            YOLO_OUTPUT_NAMES);
+        } else if (mode == DetectorMode.MULTIBOX) {
+            classifier =
                     TensorFlowMultiBoxDetector.create(
                             getApplicationContext().getAssets(),
                             MB_MODEL_FILE,
@@ -635,21 +1059,20 @@ public class HelloSceneformActivity extends AppCompatActivity {
                             MB_IMAGE_STD,
                             MB_INPUT_NAME,
                             MB_OUTPUT_LOCATIONS_NAME,
-                            MB_OUTPUT_SCORES_NAME);
-            cropSize = MB_INPUT_SIZE;
+                            MB_OUTPUT_SCORES_NAME,
+                            getCacheDir(),
+                            getAssetVersion());
         } else {
-            try {
-                detector = TensorFlowObjectDetectionAPIModel.create(
-                        getApplicationContext().getAssets(), TF_OD_API_MODEL_FILE,
-                        TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE);
-                cropSize = TF_OD_API_INPUT_SIZE;
-            } catch (final IOException e) {
-                Toast toast =
-                        Toast.makeText(
-                                getApplicationContext(), "Classifier could not be initialized",
-                                Toast.LENGTH_SHORT);
-                toast.show();
-            }
+            classifier = TensorFlowObjectDetectionAPIModel.create(
+                    getApplicationContext().getAssets(), TF_OD_API_MODEL_FILE,
+                    TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE, mode.minimumConfidence);
         }
+        classifier.enableParallelPreprocessing(PARALLEL_PREPROCESS_MIN_PIXELS);
+        classifier.setMinimumConfidence(mode.minimumConfidence);
+        return classifier;
+    }
+
+    private boolean isItemPending(final int itemIndex) {
+        return itemIndex >= 0 && itemsPending[itemIndex];
     }
 }
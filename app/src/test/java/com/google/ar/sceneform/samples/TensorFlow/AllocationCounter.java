@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the bytes the calling thread allocates, using the HotSpot thread MXBean. Tests using
+ * it are skipped on JVMs without per-thread allocation accounting.
+ */
+final class AllocationCounter {
+  private final com.sun.management.ThreadMXBean threads;
+
+  AllocationCounter() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(
+        "No per-thread allocation accounting",
+        bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+    threads = (com.sun.management.ThreadMXBean) bean;
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  /** Returns the bytes allocated by the calling thread so far. */
+  long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Returns the bytes allocated while running {@code action} {@code times} times in a row. */
+  long allocatedBytes(final Runnable action, final int times) {
+    final long start = allocatedBytes();
+    for (int i = 0; i < times; ++i) {
+      action.run();
+    }
+    return allocatedBytes() - start;
+  }
+
+  /**
+   * Like {@link #allocatedBytes(Runnable, int)}, but repeated {@code rounds} times, returning the
+   * least allocated by a round. One-off allocations by the runtime on the calling thread, e.g.
+   * while a method is being recompiled, then do not count, while allocations by the action itself
+   * show up in every round.
+   */
+  long minAllocatedBytes(final Runnable action, final int times, final int rounds) {
+    long min = Long.MAX_VALUE;
+    for (int round = 0; round < rounds && min > 0; ++round) {
+      min = Math.min(min, allocatedBytes(action, times));
+    }
+    return min;
+  }
+}
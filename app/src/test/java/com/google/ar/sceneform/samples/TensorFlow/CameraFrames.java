@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Random YUV frames laid out like the camera images ARCore hands out on most phones. */
+final class CameraFrames {
+  private CameraFrames() {}
+
+  /**
+   * Returns a landscape NV21 frame with padded rows, its U plane starting one byte into the
+   * interleaved chroma, turned a quarter clockwise and cropped to a portrait view.
+   */
+  static YuvFrame random(final Random random, final int width, final int height) {
+    final int rowStride = width + 32;
+    final byte[] luma = new byte[rowStride * height];
+    final byte[] chroma = new byte[rowStride * ((height + 1) / 2)];
+    random.nextBytes(luma);
+    random.nextBytes(chroma);
+    return new YuvFrame()
+        .setPlanes(
+            ByteBuffer.wrap(luma),
+            ByteBuffer.wrap(chroma, 1, chroma.length - 1).slice(),
+            ByteBuffer.wrap(chroma),
+            width,
+            height,
+            rowStride,
+            rowStride,
+            2)
+        .setRotation(90)
+        .cropToAspect(1080, 1920);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Checks that box priors round-trip through the binary cache and that stale caches are ignored. */
+public class MultiBoxPriorsTest {
+  private static final int NUM_LOCATIONS = 2;
+
+  private File cacheDir;
+  private File priorsFile;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = File.createTempFile("priors", "");
+    cacheDir.delete();
+    cacheDir.mkdir();
+    cacheDir.deleteOnExit();
+    priorsFile = new File(cacheDir, "priors.txt");
+    priorsFile.deleteOnExit();
+  }
+
+  @Test
+  public void cachedLoadMatchesParsedLoad() throws IOException {
+    writePriors(0.1f);
+    final float[] parsed = decodeMeans(load());
+    assertEquals(1, cacheFiles().length);
+
+    final float[] cached = decodeMeans(load());
+    assertArrayEquals(parsed, cached, 0.0f);
+    assertEquals(0.1f, cached[0], 0.0f);
+    assertEquals(0.8f, cached[7], 1e-6f);
+  }
+
+  @Test
+  public void cacheHitDoesNotReadSource() throws IOException {
+    writePriors(0.1f);
+    final long lastModified = priorsFile.lastModified();
+    load();
+
+    // Garbage of the same length and age still loads the cached priors.
+    final StringBuilder garbage = new StringBuilder();
+    for (int i = 0; i < priorsFile.length(); ++i) {
+      garbage.append('x');
+    }
+    write(garbage.toString());
+    priorsFile.setLastModified(lastModified);
+    assertEquals(0.1f, decodeMeans(load())[0], 0.0f);
+  }
+
+  @Test
+  public void changedSourceInvalidatesCache() throws IOException {
+    writePriors(0.1f);
+    final long lastModified = priorsFile.lastModified();
+    load();
+
+    // Same name, same length, different values, written later.
+    writePriors(0.2f);
+    priorsFile.setLastModified(lastModified + 2000);
+    final float[] means = decodeMeans(load());
+    assertEquals(0.2f, means[0], 0.0f);
+    assertEquals(1, cacheFiles().length);
+    assertEquals(0.2f, decodeMeans(load())[0], 0.0f);
+  }
+
+  private MultiBoxPriors load() throws IOException {
+    final MultiBoxPriors priors =
+        MultiBoxPriors.load(null, priorsFile.getPath(), NUM_LOCATIONS, cacheDir, 0);
+    for (final File file : cacheFiles()) {
+      file.deleteOnExit();
+    }
+    return priors;
+  }
+
+  private File[] cacheFiles() {
+    return cacheDir.listFiles((dir, name) -> name.startsWith("multibox_priors_"));
+  }
+
+  /** Writes priors whose means step by 0.1 from {@code firstMean}, each with a std of 0.5. */
+  private void writePriors(final float firstMean) throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < NUM_LOCATIONS * 4; ++i) {
+      text.append(String.format(Locale.US, "%.1f, 0.5\n", firstMean + i * 0.1f));
+    }
+    write(text.toString());
+  }
+
+  private void write(final String text) throws IOException {
+    final FileOutputStream out = new FileOutputStream(priorsFile);
+    try {
+      out.write(text.getBytes(Charset.forName("UTF-8")));
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Returns the means, by decoding an all-zero location encoding. */
+  private static float[] decodeMeans(final MultiBoxPriors priors) {
+    final float[] locations = new float[NUM_LOCATIONS * 4];
+    priors.decode(new float[NUM_LOCATIONS * 4], locations);
+    return locations;
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.FastMath;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks {@link NonMaxSuppression} against a naive quadratic implementation of each variant on
+ * random, heavily overlapping candidates with tied scores.
+ */
+public class NonMaxSuppressionTest {
+  private static final int NUM_CLASSES = 3;
+
+  private Random random;
+
+  @Before
+  public void setUp() {
+    random = new Random(15);
+  }
+
+  @Test
+  public void greedyKeepsBestOfOverlappingPair() {
+    final float[] boxes = {
+      0, 0, 10, 10,
+      1, 1, 11, 11,
+      20, 20, 30, 30
+    };
+    final float[] scores = {0.6f, 0.9f, 0.5f};
+    final int[] keep = new int[3];
+    final int numKept = NonMaxSuppression.greedy(0.5f).apply(boxes, scores, null, 3, 0.0f, keep);
+    assertArrayEquals(new int[] {1, 2}, Arrays.copyOf(keep, numKept));
+  }
+
+  @Test
+  public void greedyMatchesReference() {
+    for (final boolean classAware : new boolean[] {false, true}) {
+      for (final float iouThreshold : new float[] {0.0f, 0.3f, 0.5f, 0.8f}) {
+        for (int trial = 0; trial < 100; ++trial) {
+          checkGreedy(classAware, iouThreshold, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void greedyMatchesReferenceWithLimits() {
+    for (int trial = 0; trial < 200; ++trial) {
+      checkGreedy(
+          random.nextBoolean(), 0.5f, 1 + random.nextInt(10), 1 + random.nextInt(100));
+    }
+  }
+
+  @Test
+  public void softMatchesReference() {
+    for (final boolean classAware : new boolean[] {false, true}) {
+      for (final float sigma : new float[] {0.1f, 0.5f}) {
+        for (int trial = 0; trial < 100; ++trial) {
+          checkSoft(classAware, sigma, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void softMatchesReferenceWithLimits() {
+    for (int trial = 0; trial < 200; ++trial) {
+      checkSoft(random.nextBoolean(), 0.5f, 1 + random.nextInt(10), 1 + random.nextInt(100));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void softRejectsNonPositiveSigma() {
+    NonMaxSuppression.soft(0.0f);
+  }
+
+  private void checkGreedy(
+      final boolean classAware,
+      final float iouThreshold,
+      final int maxResults,
+      final int maxCandidates) {
+    final Candidates c = new Candidates(random);
+    final float minScore = random.nextInt(4) / 8.0f;
+
+    final NonMaxSuppression nms =
+        NonMaxSuppression.greedy(iouThreshold)
+            .setClassAware(classAware)
+            .setMaxResults(maxResults)
+            .setMaxCandidates(maxCandidates);
+    final int[] keep = new int[c.count];
+    final int numKept = nms.apply(c.boxes, c.scores, c.classIds, c.count, minScore, keep);
+
+    final int[] expected =
+        referenceGreedy(c, classAware, iouThreshold, minScore, maxResults, maxCandidates);
+    assertArrayEquals(expected, Arrays.copyOf(keep, numKept));
+  }
+
+  private void checkSoft(
+      final boolean classAware, final float sigma, final int maxResults, final int maxCandidates) {
+    final Candidates c = new Candidates(random);
+    final float minScore = 0.05f + random.nextInt(4) / 8.0f;
+    final float[] expectedScores = c.scores.clone();
+    final int[] expected =
+        referenceSoft(c, expectedScores, classAware, sigma, minScore, maxResults, maxCandidates);
+
+    final NonMaxSuppression nms =
+        NonMaxSuppression.soft(sigma)
+            .setClassAware(classAware)
+            .setMaxResults(maxResults)
+            .setMaxCandidates(maxCandidates);
+    final int[] keep = new int[c.count];
+    final int numKept = nms.apply(c.boxes, c.scores, c.classIds, c.count, minScore, keep);
+
+    assertArrayEquals(expected, Arrays.copyOf(keep, numKept));
+    for (final int kept : expected) {
+      assertEquals(expectedScores[kept], c.scores[kept], 0.0f);
+    }
+  }
+
+  /** Random candidates crowded into a small area, with coarse scores so that many tie. */
+  private static final class Candidates {
+    final int count;
+    final float[] boxes;
+    final float[] scores;
+    final int[] classIds;
+
+    Candidates(final Random random) {
+      count = random.nextInt(80);
+      boxes = new float[4 * count];
+      scores = new float[count];
+      classIds = new int[count];
+      for (int i = 0; i < count; ++i) {
+        final float left = random.nextInt(100);
+        final float top = random.nextInt(100);
+        boxes[4 * i] = left;
+        boxes[4 * i + 1] = top;
+        boxes[4 * i + 2] = left + 5 + random.nextInt(40);
+        boxes[4 * i + 3] = top + 5 + random.nextInt(40);
+        scores[i] = random.nextInt(16) / 16.0f;
+        classIds[i] = random.nextInt(NUM_CLASSES);
+      }
+    }
+  }
+
+  /** Returns the passing candidates by decreasing score, lower index first among ties. */
+  private static int[] sortedCandidates(
+      final Candidates c, final float minScore, final int maxCandidates) {
+    final Integer[] all = new Integer[c.count];
+    for (int i = 0; i < c.count; ++i) {
+      all[i] = i;
+    }
+    Arrays.sort(
+        all,
+        (a, b) -> c.scores[a] != c.scores[b] ? Float.compare(c.scores[b], c.scores[a]) : a - b);
+    int numPassing = 0;
+    final int[] order = new int[c.count];
+    for (final int i : all) {
+      if (c.scores[i] >= minScore && numPassing < maxCandidates) {
+        order[numPassing++] = i;
+      }
+    }
+    return Arrays.copyOf(order, numPassing);
+  }
+
+  private static int[] referenceGreedy(
+      final Candidates c,
+      final boolean classAware,
+      final float iouThreshold,
+      final float minScore,
+      final int maxResults,
+      final int maxCandidates) {
+    final int[] kept = new int[c.count];
+    int numKept = 0;
+    for (final int candidate : sortedCandidates(c, minScore, maxCandidates)) {
+      if (numKept == maxResults) {
+        break;
+      }
+      boolean suppressed = false;
+      for (int k = 0; k < numKept; ++k) {
+        if (classAware && c.classIds[kept[k]] != c.classIds[candidate]) {
+          continue;
+        }
+        if (iou(c.boxes, candidate, kept[k]) > iouThreshold) {
+          suppressed = true;
+        }
+      }
+      if (!suppressed) {
+        kept[numKept++] = candidate;
+      }
+    }
+    return Arrays.copyOf(kept, numKept);
+  }
+
+  /**
+   * Repeatedly keeps the best remaining candidate, the earliest in sorted order among ties, and
+   * decays the others by their IoU with it. Writes the final scores of kept boxes to
+   * {@code scores}.
+   */
+  private static int[] referenceSoft(
+      final Candidates c,
+      final float[] scores,
+      final boolean classAware,
+      final float sigma,
+      final float minScore,
+      final int maxResults,
+      final int maxCandidates) {
+    final int[] order = sortedCandidates(c, minScore, maxCandidates);
+    final float[] decayed = new float[order.length];
+    final boolean[] done = new boolean[order.length];
+    for (int k = 0; k < order.length; ++k) {
+      decayed[k] = c.scores[order[k]];
+    }
+
+    final int[] kept = new int[order.length];
+    int numKept = 0;
+    while (numKept < maxResults) {
+      int best = -1;
+      for (int k = 0; k < order.length; ++k) {
+        if (!done[k] && (best < 0 || decayed[k] > decayed[best])) {
+          best = k;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      done[best] = true;
+      final int keptBox = order[best];
+      scores[keptBox] = decayed[best];
+      kept[numKept++] = keptBox;
+
+      for (int k = 0; k < order.length; ++k) {
+        if (done[k]) {
+          continue;
+        }
+        if (!classAware || c.classIds[order[k]] == c.classIds[keptBox]) {
+          final float iou = iou(c.boxes, order[k], keptBox);
+          if (iou > 0) {
+            decayed[k] *= FastMath.exp(-iou * iou / sigma);
+          }
+        }
+        if (decayed[k] < minScore) {
+          done[k] = true;
+        }
+      }
+    }
+    return Arrays.copyOf(kept, numKept);
+  }
+
+  private static float iou(final float[] boxes, final int a, final int b) {
+    final float width =
+        Math.max(0.0f, Math.min(boxes[4 * a + 2], boxes[4 * b + 2])
+            - Math.max(boxes[4 * a], boxes[4 * b]));
+    final float height =
+        Math.max(0.0f, Math.min(boxes[4 * a + 3], boxes[4 * b + 3])
+            - Math.max(boxes[4 * a + 1], boxes[4 * b + 1]));
+    final float intersection = width * height;
+    return intersection / (area(boxes, a) + area(boxes, b) - intersection);
+  }
+
+  private static float area(final float[] boxes, final int i) {
+    return (boxes[4 * i + 2] - boxes[4 * i]) * (boxes[4 * i + 3] - boxes[4 * i + 1]);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.Normalizer;
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the per-frame work of the MultiBox detector around the TensorFlow session: preprocessing
+ * into the input buffer, and decoding the fetched encodings through the box priors and
+ * suppression into the detection buffer.
+ */
+public class TensorFlowMultiBoxDetectorTest {
+  private static final int INPUT_SIZE = 224;
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int NUM_LOCATIONS = 784;
+
+  private TensorFlowMultiBoxDetector detector;
+  private int[] pixels;
+  private float[] locationsEncoding;
+  private float[] scoresEncoding;
+
+  @Before
+  public void setUp() throws IOException {
+    final Random random = new Random(8);
+    final File priorsFile = File.createTempFile("priors", ".txt");
+    priorsFile.deleteOnExit();
+    writePriors(priorsFile, random);
+    detector =
+        new TensorFlowMultiBoxDetector(
+            MultiBoxPriors.load(null, priorsFile.getPath(), NUM_LOCATIONS, null, 0),
+            INPUT_SIZE,
+            Normalizer.meanStd(128, 128.0f));
+    detector.setMinimumConfidence(0.1f);
+
+    pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+    for (int i = 0; i < pixels.length; ++i) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    locationsEncoding = new float[NUM_LOCATIONS * 4];
+    scoresEncoding = new float[NUM_LOCATIONS];
+    for (int i = 0; i < locationsEncoding.length; ++i) {
+      locationsEncoding[i] = (float) random.nextGaussian();
+    }
+    for (int i = 0; i < scoresEncoding.length; ++i) {
+      scoresEncoding[i] = (float) random.nextGaussian() * 3;
+    }
+  }
+
+  @Test
+  public void decodeKeepsNonOverlappingConfidentBoxes() {
+    final DetectionBuffer detections = detector.decodeDetections(locationsEncoding, scoresEncoding);
+
+    assertTrue(detections.size() > 1);
+    for (int i = 0; i < detections.size(); ++i) {
+      assertTrue(detections.getScore(i) >= 0.1f);
+      if (i > 0) {
+        assertTrue(detections.getScore(i) <= detections.getScore(i - 1));
+      }
+      assertTrue(detections.getLeft(i) >= 0 && detections.getRight(i) <= INPUT_SIZE);
+      assertTrue(detections.getTop(i) >= 0 && detections.getBottom(i) <= INPUT_SIZE);
+    }
+  }
+
+  @Test
+  public void repeatedFramesReuseTheirBuffers() {
+    final DetectionBuffer first = detector.decodeDetections(locationsEncoding, scoresEncoding);
+    final int firstSize = first.size();
+    final DetectionBuffer second = detector.decodeDetections(locationsEncoding, scoresEncoding);
+    assertSame(first, second);
+    assertEquals(firstSize, second.size());
+  }
+
+  @Test
+  public void steadyStateFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final Runnable frame =
+        () -> {
+          detector.preprocess(pixels, FRAME_WIDTH, FRAME_HEIGHT);
+          detector.decodeDetections(locationsEncoding, scoresEncoding);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+
+  @Test
+  public void steadyStateCameraFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final YuvFrame yuv = CameraFrames.random(new Random(9), FRAME_WIDTH, FRAME_HEIGHT);
+    final Runnable frame =
+        () -> {
+          detector.preprocess(yuv);
+          detector.decodeDetections(locationsEncoding, scoresEncoding);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+
+  /** Writes priors scattering boxes of various sizes over the input, as mean, std pairs. */
+  private static void writePriors(final File file, final Random random) throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < NUM_LOCATIONS; ++i) {
+      final float left = random.nextFloat() * 0.8f;
+      final float top = random.nextFloat() * 0.8f;
+      final float right = left + 0.05f + random.nextFloat() * 0.15f;
+      final float bottom = top + 0.05f + random.nextFloat() * 0.15f;
+      for (final float corner : new float[] {left, top, right, bottom}) {
+        text.append(String.format(Locale.US, "%.4f, 0.02\n", corner));
+      }
+    }
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.toString().getBytes(Charset.forName("UTF-8")));
+    } finally {
+      out.close();
+    }
+  }
+}
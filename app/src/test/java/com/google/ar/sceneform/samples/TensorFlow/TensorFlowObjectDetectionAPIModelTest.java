@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the per-frame work of the Object Detection API model around the TensorFlow session:
+ * preprocessing into the input buffer and decoding the fetched outputs.
+ */
+public class TensorFlowObjectDetectionAPIModelTest {
+  private static final int INPUT_SIZE = 300;
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int NUM_OUTPUTS = 100;
+
+  private TensorFlowObjectDetectionAPIModel model;
+  private int[] pixels;
+  private float[] locations;
+  private float[] scores;
+  private float[] classes;
+
+  @Before
+  public void setUp() {
+    model =
+        new TensorFlowObjectDetectionAPIModel(
+            LabelTable.of(Arrays.asList("???", "person", "bicycle", "car")), INPUT_SIZE, 0.345f);
+
+    final Random random = new Random(8);
+    pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+    for (int i = 0; i < pixels.length; ++i) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+
+    // Sorted by decreasing score, as the postprocessing op emits them.
+    locations = new float[NUM_OUTPUTS * 4];
+    scores = new float[NUM_OUTPUTS];
+    classes = new float[NUM_OUTPUTS];
+    for (int i = 0; i < NUM_OUTPUTS; ++i) {
+      scores[i] = 1.0f - i / (float) NUM_OUTPUTS;
+      classes[i] = 1 + i % 3;
+      locations[4 * i] = 0.1f;
+      locations[4 * i + 1] = 0.2f;
+      locations[4 * i + 2] = 0.5f;
+      locations[4 * i + 3] = 0.7f;
+    }
+  }
+
+  @Test
+  public void decodeStopsAtMinimumConfidence() {
+    final DetectionBuffer detections =
+        model.decodeDetections(locations, scores, classes, NUM_OUTPUTS, 0);
+
+    // Scores 1.0 down to 0.35 pass a floor of 0.345.
+    assertEquals(66, detections.size());
+    assertEquals("person", detections.getTitle(0));
+    assertEquals(1, detections.getClassId(0));
+    // Boxes arrive as [top, left, bottom, right] in [0, 1].
+    assertEquals(0.2f * INPUT_SIZE, detections.getLeft(0), 1e-4f);
+    assertEquals(0.1f * INPUT_SIZE, detections.getTop(0), 1e-4f);
+    assertEquals(0.7f * INPUT_SIZE, detections.getRight(0), 1e-4f);
+    assertEquals(0.5f * INPUT_SIZE, detections.getBottom(0), 1e-4f);
+  }
+
+  @Test
+  public void repeatedFramesReuseTheirBuffers() {
+    final DetectionBuffer first = model.decodeDetections(locations, scores, classes, 50, 0);
+    final DetectionBuffer second = model.decodeDetections(locations, scores, classes, 20, 0);
+    assertSame(first, second);
+    assertEquals(20, second.size());
+  }
+
+  @Test
+  public void steadyStateFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final Runnable frame =
+        () -> {
+          model.preprocess(pixels, FRAME_WIDTH, FRAME_HEIGHT);
+          model.decodeDetections(locations, scores, classes, NUM_OUTPUTS, 0);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+
+  @Test
+  public void steadyStateCameraFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final YuvFrame yuv = CameraFrames.random(new Random(9), FRAME_WIDTH, FRAME_HEIGHT);
+    final Runnable frame =
+        () -> {
+          model.preprocess(yuv);
+          model.decodeDetections(locations, scores, classes, NUM_OUTPUTS, 0);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+}
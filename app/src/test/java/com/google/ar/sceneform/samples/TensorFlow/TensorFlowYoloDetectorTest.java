@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ar.sceneform.samples.TensorFlow.env.YuvFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the per-frame work of the YOLO detector around the TensorFlow session: preprocessing
+ * into the input buffer, and decoding the region layer output through class-aware suppression
+ * into the detection buffer.
+ */
+public class TensorFlowYoloDetectorTest {
+  private static final int INPUT_SIZE = 416;
+  private static final int BLOCK_SIZE = 32;
+  private static final int GRID_SIZE = INPUT_SIZE / BLOCK_SIZE;
+  private static final int BOXES_PER_BLOCK = 5;
+  private static final int NUM_CLASSES = 20;
+  private static final double[] ANCHORS = {
+    1.08, 1.19,
+    3.42, 4.41,
+    6.63, 11.38,
+    9.42, 5.11,
+    16.62, 10.52
+  };
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+
+  private TensorFlowYoloDetector detector;
+  private int[] pixels;
+  private float[] output;
+
+  @Before
+  public void setUp() {
+    final List<String> labels = new ArrayList<String>();
+    for (int c = 0; c < NUM_CLASSES; ++c) {
+      labels.add("class" + c);
+    }
+    detector =
+        new TensorFlowYoloDetector(
+            new YoloModelDescriptor(
+                INPUT_SIZE,
+                BLOCK_SIZE,
+                GRID_SIZE,
+                BOXES_PER_BLOCK,
+                ANCHORS,
+                LabelTable.of(labels)));
+    detector.setMinimumConfidence(0.05f);
+
+    final Random random = new Random(8);
+    pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+    for (int i = 0; i < pixels.length; ++i) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    output = new float[GRID_SIZE * GRID_SIZE * BOXES_PER_BLOCK * (NUM_CLASSES + 5)];
+    for (int i = 0; i < output.length; ++i) {
+      output[i] = (float) random.nextGaussian() * 3;
+    }
+  }
+
+  @Test
+  public void decodeReturnsBestBoxesFirst() {
+    final DetectionBuffer detections = detector.decodeDetections(output);
+
+    assertEquals(5, detections.size());
+    for (int i = 0; i < detections.size(); ++i) {
+      assertTrue(detections.getScore(i) >= 0.05f);
+      if (i > 0) {
+        assertTrue(detections.getScore(i) <= detections.getScore(i - 1));
+      }
+      assertEquals("class" + detections.getClassId(i), detections.getTitle(i));
+    }
+  }
+
+  @Test
+  public void repeatedFramesReuseTheirBuffers() {
+    final DetectionBuffer first = detector.decodeDetections(output);
+    final DetectionBuffer second = detector.decodeDetections(output);
+    assertSame(first, second);
+    assertEquals(5, second.size());
+  }
+
+  @Test
+  public void steadyStateFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final Runnable frame =
+        () -> {
+          detector.preprocess(pixels, FRAME_WIDTH, FRAME_HEIGHT);
+          detector.decodeDetections(output);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+
+  @Test
+  public void steadyStateCameraFramesDoNotAllocate() {
+    final AllocationCounter counter = new AllocationCounter();
+    final YuvFrame yuv = CameraFrames.random(new Random(9), FRAME_WIDTH, FRAME_HEIGHT);
+    final Runnable frame =
+        () -> {
+          detector.preprocess(yuv);
+          detector.decodeDetections(output);
+        };
+
+    // Warm up, so that one-off work such as sizing the preprocessor's lookup is done.
+    counter.allocatedBytes(frame, 20);
+    assertEquals(0, counter.minAllocatedBytes(frame, 200, 5));
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks {@link YoloRegionDecoder} against the double precision decode that
+ * {@link TensorFlowYoloDetector} used before it, on random region layer outputs.
+ */
+public class YoloRegionDecoderTest {
+  private static final int INPUT_SIZE = 416;
+  private static final int BLOCK_SIZE = 32;
+  private static final int GRID_SIZE = INPUT_SIZE / BLOCK_SIZE;
+  private static final int BOXES_PER_BLOCK = 5;
+  private static final int NUM_CLASSES = 20;
+  private static final double[] ANCHORS = {
+    1.08, 1.19,
+    3.42, 4.41,
+    6.63, 11.38,
+    9.42, 5.11,
+    16.62, 10.52
+  };
+
+  // Relative tolerance on scores, from the error bound of FastMath.exp compounded over the
+  // softmax sum. Box edges are differences of nearly equal terms, so they get the same tolerance
+  // relative to the input size instead.
+  private static final float TOLERANCE = 1e-4f;
+  private static final float BOX_TOLERANCE = INPUT_SIZE * TOLERANCE;
+
+  private YoloRegionDecoder decoder;
+  private Random random;
+
+  @Before
+  public void setUp() {
+    final List<String> labels = new ArrayList<String>();
+    for (int c = 0; c < NUM_CLASSES; ++c) {
+      labels.add("class" + c);
+    }
+    decoder =
+        new YoloRegionDecoder(
+            new YoloModelDescriptor(
+                INPUT_SIZE,
+                BLOCK_SIZE,
+                GRID_SIZE,
+                BOXES_PER_BLOCK,
+                ANCHORS,
+                LabelTable.of(labels)));
+    random = new Random(11);
+  }
+
+  @Test
+  public void matchesReferenceDecode() {
+    for (int frame = 0; frame < 50; ++frame) {
+      final float[] output = randomOutput();
+      for (final float threshold : new float[] {0.01f, 0.1f, 0.3f, 0.6f}) {
+        assertMatchesReference(output, threshold);
+      }
+    }
+  }
+
+  @Test
+  public void matchesReferenceDecodeOnSaturatedLogits() {
+    final float[] output = randomOutput();
+    for (int i = 0; i < output.length; ++i) {
+      // Far enough out that sigmoid and exp saturate, and the box clamps to the input.
+      output[i] *= 12;
+    }
+    assertMatchesReference(output, 0.01f);
+  }
+
+  @Test
+  public void decodesNothingBelowThreshold() {
+    final float[] output = new float[decoder.getOutputSize()];
+    // Objectness 0.5 and a uniform class distribution give every box a confidence of 0.025.
+    assertEquals(0, decoder.decode(output, 0.03f));
+    assertEquals(GRID_SIZE * GRID_SIZE * BOXES_PER_BLOCK, decoder.decode(output, 0.02f));
+  }
+
+  private float[] randomOutput() {
+    final float[] output = new float[decoder.getOutputSize()];
+    for (int offset = 0; offset < output.length; offset += NUM_CLASSES + 5) {
+      for (int i = 0; i < 4; ++i) {
+        output[offset + i] = (float) random.nextGaussian();
+      }
+      // Spread objectness wide, so that thresholds both prune and pass boxes.
+      output[offset + 4] = (float) (4 * random.nextGaussian());
+      for (int c = 0; c < NUM_CLASSES; ++c) {
+        output[offset + 5 + c] = (float) (3 * random.nextGaussian());
+      }
+    }
+    return output;
+  }
+
+  private void assertMatchesReference(final float[] output, final float threshold) {
+    final Map<Integer, Candidate> expected = new HashMap<Integer, Candidate>();
+    for (final Candidate candidate : referenceDecode(output, threshold)) {
+      expected.put(candidate.offset, candidate);
+    }
+
+    final int count = decoder.decode(output, threshold);
+    final float[] boxes = decoder.getBoxes();
+    final float[] scores = decoder.getScores();
+    final int[] classIds = decoder.getClassIds();
+    final int[] offsets = decoder.getOffsets();
+
+    final Set<Integer> decoded = new HashSet<Integer>();
+    for (int i = 0; i < count; ++i) {
+      decoded.add(offsets[i]);
+      final Candidate reference = expected.get(offsets[i]);
+      if (reference == null) {
+        // Only a score within rounding of the threshold may fall on the other side of it.
+        assertEquals(threshold, scores[i], threshold * TOLERANCE);
+        continue;
+      }
+      assertEquals(reference.classId, classIds[i]);
+      assertEquals(reference.score, scores[i], reference.score * TOLERANCE);
+      for (int j = 0; j < 4; ++j) {
+        assertEquals(reference.box[j], boxes[4 * i + j], BOX_TOLERANCE);
+      }
+    }
+    for (final Candidate reference : expected.values()) {
+      if (!decoded.contains(reference.offset)) {
+        assertEquals(threshold, reference.score, threshold * TOLERANCE);
+      }
+    }
+  }
+
+  /** A candidate box of the reference decode. */
+  private static final class Candidate {
+    final int offset;
+    final float[] box;
+    final float score;
+    final int classId;
+
+    Candidate(final int offset, final float[] box, final float score, final int classId) {
+      this.offset = offset;
+      this.box = box;
+      this.score = score;
+      this.classId = classId;
+    }
+  }
+
+  /** The decode loop of TensorFlowYoloDetector before YoloRegionDecoder, less the top-k. */
+  private static List<Candidate> referenceDecode(final float[] output, final float threshold) {
+    final List<Candidate> candidates = new ArrayList<Candidate>();
+    for (int y = 0; y < GRID_SIZE; ++y) {
+      for (int x = 0; x < GRID_SIZE; ++x) {
+        for (int b = 0; b < BOXES_PER_BLOCK; ++b) {
+          final int offset =
+              (GRID_SIZE * (BOXES_PER_BLOCK * (NUM_CLASSES + 5))) * y
+                  + (BOXES_PER_BLOCK * (NUM_CLASSES + 5)) * x
+                  + (NUM_CLASSES + 5) * b;
+
+          final float xPos = (x + expit(output[offset + 0])) * BLOCK_SIZE;
+          final float yPos = (y + expit(output[offset + 1])) * BLOCK_SIZE;
+
+          final float w = (float) (Math.exp(output[offset + 2]) * ANCHORS[2 * b + 0]) * BLOCK_SIZE;
+          final float h = (float) (Math.exp(output[offset + 3]) * ANCHORS[2 * b + 1]) * BLOCK_SIZE;
+
+          final float[] box = {
+            Math.max(0, xPos - w / 2),
+            Math.max(0, yPos - h / 2),
+            Math.min(INPUT_SIZE - 1, xPos + w / 2),
+            Math.min(INPUT_SIZE - 1, yPos + h / 2)
+          };
+          final float confidence = expit(output[offset + 4]);
+
+          int detectedClass = -1;
+          float maxClass = 0;
+
+          final float[] classes = new float[NUM_CLASSES];
+          for (int c = 0; c < NUM_CLASSES; ++c) {
+            classes[c] = output[offset + 5 + c];
+          }
+          softmax(classes);
+
+          for (int c = 0; c < NUM_CLASSES; ++c) {
+            if (classes[c] > maxClass) {
+              detectedClass = c;
+              maxClass = classes[c];
+            }
+          }
+
+          final float confidenceInClass = maxClass * confidence;
+          if (confidenceInClass > threshold) {
+            candidates.add(new Candidate(offset, box, confidenceInClass, detectedClass));
+          }
+        }
+      }
+    }
+    return candidates;
+  }
+
+  private static float expit(final float x) {
+    return (float) (1. / (1. + Math.exp(-x)));
+  }
+
+  private static void softmax(final float[] vals) {
+    float max = Float.NEGATIVE_INFINITY;
+    for (final float val : vals) {
+      max = Math.max(max, val);
+    }
+    float sum = 0.0f;
+    for (int i = 0; i < vals.length; ++i) {
+      vals[i] = (float) Math.exp(vals[i] - max);
+      sum += vals[i];
+    }
+    for (int i = 0; i < vals.length; ++i) {
+      vals[i] = vals[i] / sum;
+    }
+  }
+}
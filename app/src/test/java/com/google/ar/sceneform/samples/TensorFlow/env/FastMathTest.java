@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Checks the approximations of {@link FastMath} against {@link Math} in double precision. */
+public class FastMathTest {
+  @Test
+  public void expIsWithinDocumentedError() {
+    for (float x = -87.0f; x <= 88.0f; x += 0.01f) {
+      final double expected = Math.exp(x);
+      assertEquals("exp(" + x + ")", expected, FastMath.exp(x), expected * 4e-6);
+    }
+  }
+
+  @Test
+  public void expClampsOutOfRangeArguments() {
+    assertEquals(FastMath.exp(88.0f), FastMath.exp(1000.0f), 0.0f);
+    assertEquals(FastMath.exp(-87.0f), FastMath.exp(-1000.0f), 0.0f);
+    assertTrue(FastMath.exp(-1000.0f) > 0.0f);
+  }
+
+  @Test
+  public void sigmoidMatchesLogistic() {
+    for (float x = -20.0f; x <= 20.0f; x += 0.01f) {
+      final double expected = 1.0 / (1.0 + Math.exp(-x));
+      assertEquals("sigmoid(" + x + ")", expected, FastMath.sigmoid(x), expected * 4e-6);
+    }
+  }
+
+  @Test
+  public void logitInvertsSigmoid() {
+    for (final float p : new float[] {0.01f, 0.1f, 0.25f, 0.5f, 0.75f, 0.99f}) {
+      assertEquals(p, FastMath.sigmoid(FastMath.logit(p)), p * 1e-5f);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times serial against row-striped preprocessing of a 1080x2160 frame at the MultiBox, object
+ * detection API and YOLO input sizes. Not a test: run {@link #main} by hand, ideally on the target
+ * device's core count, since the speedup depends on it.
+ */
+public final class ImagePreprocessorBenchmark {
+  private static final int SRC_WIDTH = 1080;
+  private static final int SRC_HEIGHT = 2160;
+  private static final int WARMUP_ITERATIONS = 200;
+  private static final int ITERATIONS = 500;
+
+  private ImagePreprocessorBenchmark() {}
+
+  public static void main(final String[] args) {
+    final Random random = new Random(4);
+    final int[] src = new int[SRC_WIDTH * SRC_HEIGHT];
+    for (int i = 0; i < src.length; ++i) {
+      src[i] = random.nextInt();
+    }
+    final Normalizer normalizer = Normalizer.meanStd(117.0f, 1.0f);
+
+    System.out.println("Threads: " + ImagePreprocessor.NUM_THREADS);
+    for (final int inputSize : new int[] {224, 300, 416}) {
+      final ImagePreprocessor serial = new ImagePreprocessor(inputSize, inputSize);
+      final ImagePreprocessor parallel = new ImagePreprocessor(inputSize, inputSize);
+      parallel.setParallelThreshold(0);
+      final float[] floats = new float[inputSize * inputSize * 3];
+      final byte[] bytes = new byte[inputSize * inputSize * 3];
+
+      System.out.println(
+          String.format(
+              Locale.US,
+              "%d: floats %.3f -> %.3f ms, bytes %.3f -> %.3f ms",
+              inputSize,
+              time(() -> serial.toFloats(src, SRC_WIDTH, SRC_HEIGHT, floats, normalizer)),
+              time(() -> parallel.toFloats(src, SRC_WIDTH, SRC_HEIGHT, floats, normalizer)),
+              time(() -> serial.toBytes(src, SRC_WIDTH, SRC_HEIGHT, bytes)),
+              time(() -> parallel.toBytes(src, SRC_WIDTH, SRC_HEIGHT, bytes))));
+    }
+  }
+
+  /** Returns the mean time of one run in milliseconds, after warming up. */
+  private static double time(final Runnable run) {
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      run.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      run.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+  }
+}
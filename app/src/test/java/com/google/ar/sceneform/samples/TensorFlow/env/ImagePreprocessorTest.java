@@ -0,0 +1,472 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks every {@link ImagePreprocessor} entry point against a naive nearest-neighbour resize
+ * followed by a per-pixel {@code (v - mean) / std}. YUV frames are checked against a full
+ * conversion to ARGB followed by a naive crop and rotation.
+ */
+public class ImagePreprocessorTest {
+  private static final float MEAN = 117.0f;
+  private static final float STD = 1.0f / 0.017f;
+
+  // Source and destination sizes: downscaling, upscaling, non-square both ways, and identity.
+  private static final int[][] SIZES = {
+    {640, 480, 300, 300},
+    {480, 640, 224, 224},
+    {101, 37, 41, 13},
+    {10, 7, 300, 300},
+    {3, 5, 16, 9},
+    {1, 1, 4, 4},
+    {64, 64, 64, 64}
+  };
+
+  // YUV frame sizes and crops {left, top, width, height}, with destination sizes: the whole frame,
+  // crops at odd offsets, a single pixel and an upscaled sliver.
+  private static final int[][] YUV_CASES = {
+    {640, 480, 0, 0, 640, 480, 300, 300},
+    {640, 480, 80, 0, 480, 480, 224, 224},
+    {37, 23, 3, 5, 31, 17, 41, 13},
+    {37, 23, 1, 1, 2, 19, 16, 9},
+    {7, 5, 6, 4, 1, 1, 3, 2},
+    {2, 2, 0, 0, 2, 2, 5, 5}
+  };
+
+  private Random random;
+  private Normalizer normalizer;
+
+  @Before
+  public void setUp() {
+    random = new Random(3);
+    normalizer = Normalizer.meanStd(MEAN, STD);
+  }
+
+  @Test
+  public void floatsMatchReference() {
+    for (final int[] size : SIZES) {
+      final int[] src = randomPixels(size[0], size[1]);
+      final float[] dst = new float[size[2] * size[3] * 3];
+      new ImagePreprocessor(size[2], size[3]).toFloats(src, size[0], size[1], dst, normalizer);
+      assertArrayEquals(referenceFloats(src, size), dst, 0.0f);
+    }
+  }
+
+  @Test
+  public void floatBufferMatchesReference() {
+    for (final int[] size : SIZES) {
+      final int[] src = randomPixels(size[0], size[1]);
+      final ImagePreprocessor preprocessor = new ImagePreprocessor(size[2], size[3]);
+      final FloatBuffer buffer = preprocessor.allocateFloatBuffer();
+      preprocessor.toFloats(src, size[0], size[1], buffer, normalizer);
+
+      assertEquals(0, buffer.position());
+      final float[] dst = new float[buffer.capacity()];
+      buffer.get(dst);
+      assertArrayEquals(referenceFloats(src, size), dst, 0.0f);
+    }
+  }
+
+  @Test
+  public void bytesMatchReference() {
+    for (final int[] size : SIZES) {
+      final int[] src = randomPixels(size[0], size[1]);
+      final byte[] dst = new byte[size[2] * size[3] * 3];
+      new ImagePreprocessor(size[2], size[3]).toBytes(src, size[0], size[1], dst);
+      assertArrayEquals(referenceBytes(src, size), dst);
+    }
+  }
+
+  @Test
+  public void byteBufferMatchesReference() {
+    for (final int[] size : SIZES) {
+      final int[] src = randomPixels(size[0], size[1]);
+      final ImagePreprocessor preprocessor = new ImagePreprocessor(size[2], size[3]);
+      final ByteBuffer buffer = preprocessor.allocateByteBuffer();
+      preprocessor.toBytes(src, size[0], size[1], buffer);
+
+      assertEquals(0, buffer.position());
+      final byte[] dst = new byte[buffer.capacity()];
+      buffer.get(dst);
+      assertArrayEquals(referenceBytes(src, size), dst);
+    }
+  }
+
+  @Test
+  public void offsetsFillOneImageOfABatch() {
+    final int[] size = {101, 37, 41, 13};
+    final int imageValues = size[2] * size[3] * 3;
+    final ImagePreprocessor preprocessor = new ImagePreprocessor(size[2], size[3]);
+    final int[] first = randomPixels(size[0], size[1]);
+    final int[] second = randomPixels(size[0], size[1]);
+
+    final float[] floats = new float[2 * imageValues];
+    preprocessor.toFloats(first, size[0], size[1], floats, 0, normalizer);
+    preprocessor.toFloats(second, size[0], size[1], floats, imageValues, normalizer);
+    final float[] expectedFloats = new float[2 * imageValues];
+    System.arraycopy(referenceFloats(first, size), 0, expectedFloats, 0, imageValues);
+    System.arraycopy(referenceFloats(second, size), 0, expectedFloats, imageValues, imageValues);
+    assertArrayEquals(expectedFloats, floats, 0.0f);
+
+    final byte[] bytes = new byte[2 * imageValues];
+    preprocessor.toBytes(first, size[0], size[1], bytes, 0);
+    preprocessor.toBytes(second, size[0], size[1], bytes, imageValues);
+    final byte[] expectedBytes = new byte[2 * imageValues];
+    System.arraycopy(referenceBytes(first, size), 0, expectedBytes, 0, imageValues);
+    System.arraycopy(referenceBytes(second, size), 0, expectedBytes, imageValues, imageValues);
+    assertArrayEquals(expectedBytes, bytes);
+  }
+
+  @Test
+  public void sourceSizeChangesAreHonoured() {
+    // The lookup is cached per source size, so alternate between sizes on one instance.
+    final ImagePreprocessor preprocessor = new ImagePreprocessor(30, 20);
+    for (final int[] size : new int[][] {{640, 480, 30, 20}, {7, 9, 30, 20}, {640, 480, 30, 20}}) {
+      final int[] src = randomPixels(size[0], size[1]);
+      final float[] dst = new float[30 * 20 * 3];
+      preprocessor.toFloats(src, size[0], size[1], dst, normalizer);
+      assertArrayEquals(referenceFloats(src, size), dst, 0.0f);
+    }
+  }
+
+  @Test
+  public void parallelMatchesSerial() {
+    // The input sizes of the MultiBox, object detection API and YOLO models. Stripes are only
+    // handed to other threads when there is more than one processor.
+    final int srcWidth = 720;
+    final int srcHeight = 1280;
+    final int[] src = randomPixels(srcWidth, srcHeight);
+    for (final int inputSize : new int[] {224, 300, 416}) {
+      final ImagePreprocessor serial = new ImagePreprocessor(inputSize, inputSize);
+      final ImagePreprocessor parallel = new ImagePreprocessor(inputSize, inputSize);
+      parallel.setParallelThreshold(0);
+
+      final int values = inputSize * inputSize * 3;
+      final float[] serialFloats = new float[values];
+      final float[] parallelFloats = new float[values];
+      serial.toFloats(src, srcWidth, srcHeight, serialFloats, normalizer);
+      parallel.toFloats(src, srcWidth, srcHeight, parallelFloats, normalizer);
+      assertArrayEquals(serialFloats, parallelFloats, 0.0f);
+
+      final FloatBuffer floatBuffer = parallel.allocateFloatBuffer();
+      parallel.toFloats(src, srcWidth, srcHeight, floatBuffer, normalizer);
+      final float[] bufferFloats = new float[values];
+      floatBuffer.get(bufferFloats);
+      assertArrayEquals(serialFloats, bufferFloats, 0.0f);
+
+      final byte[] serialBytes = new byte[values];
+      final byte[] parallelBytes = new byte[values];
+      serial.toBytes(src, srcWidth, srcHeight, serialBytes);
+      parallel.toBytes(src, srcWidth, srcHeight, parallelBytes);
+      assertArrayEquals(serialBytes, parallelBytes);
+
+      final ByteBuffer byteBuffer = parallel.allocateByteBuffer();
+      parallel.toBytes(src, srcWidth, srcHeight, byteBuffer);
+      final byte[] bufferBytes = new byte[values];
+      byteBuffer.get(bufferBytes);
+      assertArrayEquals(serialBytes, bufferBytes);
+    }
+  }
+
+  @Test
+  public void yuvMatchesConvertCropRotateResize() {
+    for (final int[] yuvCase : YUV_CASES) {
+      for (final boolean interleaved : new boolean[] {false, true}) {
+        final YuvPlanes planes = new YuvPlanes(random, yuvCase[0], yuvCase[1], interleaved);
+        for (final int rotation : new int[] {0, 90, 180, 270}) {
+          final YuvFrame frame =
+              planes
+                  .frame()
+                  .setCrop(yuvCase[2], yuvCase[3], yuvCase[4], yuvCase[5])
+                  .setRotation(rotation);
+          checkYuv(frame, planes, yuvCase[6], yuvCase[7]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rotationTurnsCropClockwise() {
+    // A grey 3x2 frame with distinct luma per pixel:
+    //   a b c
+    //   d e f
+    // Turned clockwise it reads
+    //   d a
+    //   e b
+    //   f c
+    final byte[] luma = {20, 40, 60, 80, 100, 120};
+    final byte[] chroma = {(byte) 128, (byte) 128};
+    final YuvFrame frame =
+        new YuvFrame()
+            .setPlanes(
+                ByteBuffer.wrap(luma), ByteBuffer.wrap(chroma), ByteBuffer.wrap(chroma),
+                3, 2, 3, 2, 1)
+            .setRotation(90);
+    final byte[] dst = new byte[2 * 3 * 3];
+    new ImagePreprocessor(2, 3).toBytes(frame, dst);
+
+    final int[] expectedLuma = {80, 20, 100, 40, 120, 60};
+    for (int i = 0; i < expectedLuma.length; ++i) {
+      final int grey =
+          YuvToArgbConverter.toArgb((byte) expectedLuma[i], (byte) 128, (byte) 128) & 0xff;
+      assertEquals("pixel " + i, grey, dst[3 * i] & 0xff);
+    }
+  }
+
+  @Test
+  public void yuvLayoutChangesAreHonoured() {
+    // The lookup is cached per crop, rotation and strides, so alternate on one instance.
+    final ImagePreprocessor preprocessor = new ImagePreprocessor(30, 20);
+    final YuvPlanes planes = new YuvPlanes(random, 64, 48, true);
+    final YuvPlanes otherPlanes = new YuvPlanes(random, 64, 48, false);
+    checkYuv(planes.frame().setRotation(0), planes, preprocessor);
+    checkYuv(planes.frame().setRotation(90), planes, preprocessor);
+    checkYuv(planes.frame().setCrop(5, 3, 40, 30).setRotation(90), planes, preprocessor);
+    checkYuv(otherPlanes.frame().setCrop(5, 3, 40, 30).setRotation(90), otherPlanes, preprocessor);
+    checkYuv(planes.frame().setRotation(0), planes, preprocessor);
+  }
+
+  @Test
+  public void yuvParallelMatchesSerial() {
+    final YuvPlanes planes = new YuvPlanes(random, 640, 480, true);
+    for (final int rotation : new int[] {0, 90}) {
+      final YuvFrame frame = planes.frame().setRotation(rotation);
+      for (final int inputSize : new int[] {224, 300, 416}) {
+        final ImagePreprocessor serial = new ImagePreprocessor(inputSize, inputSize);
+        final ImagePreprocessor parallel = new ImagePreprocessor(inputSize, inputSize);
+        parallel.setParallelThreshold(0);
+
+        final int values = inputSize * inputSize * 3;
+        final float[] serialFloats = new float[values];
+        final float[] parallelFloats = new float[values];
+        serial.toFloats(frame, serialFloats, normalizer);
+        parallel.toFloats(frame, parallelFloats, normalizer);
+        assertArrayEquals(serialFloats, parallelFloats, 0.0f);
+
+        final byte[] serialBytes = new byte[values];
+        final byte[] parallelBytes = new byte[values];
+        serial.toBytes(frame, serialBytes);
+        parallel.toBytes(frame, parallelBytes);
+        assertArrayEquals(serialBytes, parallelBytes);
+      }
+    }
+  }
+
+  @Test
+  public void unitRangeScalesChannels() {
+    final Normalizer unit = Normalizer.unitRange();
+    assertEquals(0.0f, unit.apply(0), 0.0f);
+    assertEquals(1.0f, unit.apply(255), 0.0f);
+    assertEquals(128 / 255.0f, unit.apply(128), 0.0f);
+  }
+
+  private void checkYuv(
+      final YuvFrame frame, final YuvPlanes planes, final int dstWidth, final int dstHeight) {
+    checkYuv(frame, planes, new ImagePreprocessor(dstWidth, dstHeight), dstWidth, dstHeight);
+  }
+
+  private void checkYuv(
+      final YuvFrame frame, final YuvPlanes planes, final ImagePreprocessor preprocessor) {
+    checkYuv(frame, planes, preprocessor, 30, 20);
+  }
+
+  private void checkYuv(
+      final YuvFrame frame,
+      final YuvPlanes planes,
+      final ImagePreprocessor preprocessor,
+      final int dstWidth,
+      final int dstHeight) {
+    final boolean sideways = frame.rotation == 90 || frame.rotation == 270;
+    final int[] rotated = referenceCropAndRotate(planes.toArgb(), frame);
+    final int[] size = {
+      sideways ? frame.cropHeight : frame.cropWidth,
+      sideways ? frame.cropWidth : frame.cropHeight,
+      dstWidth,
+      dstHeight
+    };
+    final String message =
+        frame.width + "x" + frame.height + " crop " + frame.cropWidth + "x" + frame.cropHeight
+            + "+" + frame.cropLeft + "+" + frame.cropTop + " rotation " + frame.rotation;
+    final int values = dstWidth * dstHeight * 3;
+
+    final float[] floats = new float[values];
+    preprocessor.toFloats(frame, floats, normalizer);
+    assertArrayEquals(message, referenceFloats(rotated, size), floats, 0.0f);
+
+    final FloatBuffer floatBuffer = preprocessor.allocateFloatBuffer();
+    preprocessor.toFloats(frame, floatBuffer, normalizer);
+    floatBuffer.get(floats);
+    assertArrayEquals(message, referenceFloats(rotated, size), floats, 0.0f);
+
+    final byte[] bytes = new byte[values];
+    preprocessor.toBytes(frame, bytes);
+    assertArrayEquals(message, referenceBytes(rotated, size), bytes);
+
+    final ByteBuffer byteBuffer = preprocessor.allocateByteBuffer();
+    preprocessor.toBytes(frame, byteBuffer);
+    byteBuffer.get(bytes);
+    assertArrayEquals(message, referenceBytes(rotated, size), bytes);
+  }
+
+  /** Cuts the frame's crop out of its full ARGB conversion and turns it clockwise. */
+  private static int[] referenceCropAndRotate(final int[] argb, final YuvFrame frame) {
+    final int cropWidth = frame.cropWidth;
+    final int cropHeight = frame.cropHeight;
+    final int[] rotated = new int[cropWidth * cropHeight];
+    for (int cy = 0; cy < cropHeight; ++cy) {
+      for (int cx = 0; cx < cropWidth; ++cx) {
+        final int pixel = argb[(frame.cropTop + cy) * frame.width + frame.cropLeft + cx];
+        switch (frame.rotation) {
+          case 0:
+            rotated[cy * cropWidth + cx] = pixel;
+            break;
+          case 90:
+            rotated[cx * cropHeight + (cropHeight - 1 - cy)] = pixel;
+            break;
+          case 180:
+            rotated[(cropHeight - 1 - cy) * cropWidth + (cropWidth - 1 - cx)] = pixel;
+            break;
+          default:
+            rotated[(cropWidth - 1 - cx) * cropHeight + cy] = pixel;
+            break;
+        }
+      }
+    }
+    return rotated;
+  }
+
+  /**
+   * Random YUV 4:2:0 planes with padded rows. Interleaved chroma shares one array in NV21 order,
+   * planar chroma has an array per plane.
+   */
+  private static final class YuvPlanes {
+    final int width;
+    final int height;
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+
+    YuvPlanes(final Random random, final int width, final int height, final boolean interleaved) {
+      this.width = width;
+      this.height = height;
+      uvPixelStride = interleaved ? 2 : 1;
+      yRowStride = width + random.nextInt(8);
+      uvRowStride = (width + 1) / 2 * uvPixelStride + random.nextInt(8);
+      final int uvSize = uvRowStride * ((height + 1) / 2);
+      y = randomBytes(random, yRowStride * height);
+      if (interleaved) {
+        final byte[] vu = randomBytes(random, uvSize);
+        v = vu;
+        u = Arrays.copyOfRange(vu, 1, uvSize);
+      } else {
+        u = randomBytes(random, uvSize);
+        v = randomBytes(random, uvSize);
+      }
+    }
+
+    /** Returns a new frame over the planes, with the chroma of NV21 read in place. */
+    YuvFrame frame() {
+      final ByteBuffer uPlane;
+      if (uvPixelStride == 2) {
+        // The U plane starts one byte into the interleaved array, as camera images expose it.
+        final ByteBuffer vu = ByteBuffer.wrap(v);
+        vu.position(1);
+        uPlane = vu.slice();
+      } else {
+        uPlane = ByteBuffer.wrap(u);
+      }
+      return new YuvFrame()
+          .setPlanes(
+              ByteBuffer.wrap(y), uPlane, ByteBuffer.wrap(v), width, height, yRowStride,
+              uvRowStride, uvPixelStride);
+    }
+
+    /** Converts the whole frame with the Java fallback of ImageUtils. */
+    int[] toArgb() {
+      final int[] argb = new int[width * height];
+      ImageUtils.convertYUV420ToARGB8888(
+          y, u, v, width, height, yRowStride, uvRowStride, uvPixelStride, argb);
+      return argb;
+    }
+
+    private static byte[] randomBytes(final Random random, final int length) {
+      final byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      return bytes;
+    }
+  }
+
+  private int[] randomPixels(final int width, final int height) {
+    final int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; ++i) {
+      pixels[i] = random.nextInt();
+    }
+    return pixels;
+  }
+
+  /** Returns the ARGB pixel nearest to the centre of each destination pixel, row by row. */
+  private static int[] referenceResize(final int[] src, final int[] size) {
+    final int srcWidth = size[0];
+    final int srcHeight = size[1];
+    final int dstWidth = size[2];
+    final int dstHeight = size[3];
+    final int[] resized = new int[dstWidth * dstHeight];
+    for (int y = 0; y < dstHeight; ++y) {
+      final int sy = (int) Math.floor((y + 0.5) * srcHeight / dstHeight);
+      for (int x = 0; x < dstWidth; ++x) {
+        final int sx = (int) Math.floor((x + 0.5) * srcWidth / dstWidth);
+        resized[y * dstWidth + x] = src[sy * srcWidth + sx];
+      }
+    }
+    return resized;
+  }
+
+  private static float[] referenceFloats(final int[] src, final int[] size) {
+    final int[] resized = referenceResize(src, size);
+    final float[] expected = new float[resized.length * 3];
+    for (int i = 0; i < resized.length; ++i) {
+      expected[3 * i] = (((resized[i] >> 16) & 0xff) - MEAN) / STD;
+      expected[3 * i + 1] = (((resized[i] >> 8) & 0xff) - MEAN) / STD;
+      expected[3 * i + 2] = ((resized[i] & 0xff) - MEAN) / STD;
+    }
+    return expected;
+  }
+
+  private static byte[] referenceBytes(final int[] src, final int[] size) {
+    final int[] resized = referenceResize(src, size);
+    final byte[] expected = new byte[resized.length * 3];
+    for (int i = 0; i < resized.length; ++i) {
+      expected[3 * i] = (byte) (resized[i] >> 16);
+      expected[3 * i + 1] = (byte) (resized[i] >> 8);
+      expected[3 * i + 2] = (byte) resized[i];
+    }
+    return expected;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the public YUV conversions against the original per-pixel loops for odd frame sizes. The
+ * native library is not available on the JVM, so this covers the Java fallback, converting twice
+ * to check that it keeps being used once the native path is known to be missing.
+ */
+public class ImageUtilsTest {
+  private static final int[][] SIZES = {
+    {1, 1}, {2, 2}, {3, 3}, {5, 2}, {2, 5}, {7, 5}, {33, 17}, {101, 333}, {640, 481}
+  };
+
+  private Random random;
+
+  @Before
+  public void setUp() {
+    random = new Random(23);
+  }
+
+  @Test
+  public void nv21MatchesReference() {
+    for (final int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      final byte[] input = randomBytes(ImageUtils.getYUVByteSize(width, height));
+      final int[] expected = referenceNv21(input, width, height);
+      for (int i = 0; i < 2; ++i) {
+        final int[] output = new int[width * height];
+        ImageUtils.convertYUV420SPToARGB8888(input, width, height, output);
+        assertArrayEquals(expected, output);
+      }
+    }
+  }
+
+  @Test
+  public void i420MatchesReference() {
+    checkPlanes(1);
+  }
+
+  @Test
+  public void interleavedPlanesMatchReference() {
+    checkPlanes(2);
+  }
+
+  private void checkPlanes(final int uvPixelStride) {
+    for (final int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      // Padded rows, as camera planes often have.
+      final int yRowStride = width + random.nextInt(8);
+      final int uvRowStride = (width + 1) / 2 * uvPixelStride + random.nextInt(8);
+      final int uvSize = uvRowStride * ((height + 1) / 2);
+      final byte[] yData = randomBytes(yRowStride * height);
+      final byte[] uData = randomBytes(uvSize);
+      final byte[] vData = randomBytes(uvSize);
+      final int[] expected =
+          referencePlanar(
+              yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride);
+      for (int i = 0; i < 2; ++i) {
+        final int[] output = new int[width * height];
+        ImageUtils.convertYUV420ToARGB8888(
+            yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, output);
+        assertArrayEquals(expected, output);
+      }
+    }
+  }
+
+  private byte[] randomBytes(final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** The original Java YUV420SP (NV21) conversion. */
+  private static int[] referenceNv21(final byte[] input, final int width, final int height) {
+    final int[] output = new int[width * height];
+    final int frameSize = width * height;
+    for (int j = 0, yp = 0; j < height; j++) {
+      int uvp = frameSize + (j >> 1) * width;
+      int u = 0;
+      int v = 0;
+
+      for (int i = 0; i < width; i++, yp++) {
+        int y = 0xff & input[yp];
+        if ((i & 1) == 0) {
+          v = 0xff & input[uvp++];
+          u = 0xff & input[uvp++];
+        }
+
+        output[yp] = YuvToArgbConverterTest.referenceYuvToArgb(y, u, v);
+      }
+    }
+    return output;
+  }
+
+  /** The original Java YUV420 conversion of separate planes. */
+  private static int[] referencePlanar(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    final int[] out = new int[width * height];
+    int yp = 0;
+    for (int j = 0; j < height; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+        out[yp++] = YuvToArgbConverterTest.referenceYuvToArgb(
+            0xff & yData[pY + i],
+            0xff & uData[uv_offset],
+            0xff & vData[uv_offset]);
+      }
+    }
+    return out;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LumaSignatureTest {
+  private static final int WIDTH = 101;
+  private static final int HEIGHT = 67;
+
+  @Test
+  public void identicalFramesAreZeroApart() {
+    final int[] frame = gradient(WIDTH, HEIGHT);
+    final LumaSignature a = signatureOf(frame);
+    final LumaSignature b = signatureOf(frame);
+    assertEquals(0.0f, a.distance(b), 0.0f);
+  }
+
+  @Test
+  public void blackAndWhiteAreOneApart() {
+    final LumaSignature black = signatureOf(uniform(0xff000000));
+    final LumaSignature white = signatureOf(uniform(0xffffffff));
+    assertEquals(1.0f, black.distance(white), 1e-6f);
+    assertEquals(1.0f, white.distance(black), 1e-6f);
+  }
+
+  @Test
+  public void distanceIsMeanLumaDifference() {
+    // Grey levels 100 and 151 differ by 51, i.e. 0.2, in every cell.
+    final LumaSignature dark = signatureOf(uniform(0xff646464));
+    final LumaSignature light = signatureOf(uniform(0xff979797));
+    assertEquals(0.2f, dark.distance(light), 1e-6f);
+  }
+
+  @Test
+  public void changeInOneCellIsAveragedOverTheGrid() {
+    // A 64x64 frame on a 4x4 grid, whitened in exactly the top left cell.
+    final int[] black = new int[64 * 64];
+    Arrays.fill(black, 0xff000000);
+    final int[] changed = black.clone();
+    for (int y = 0; y < 16; ++y) {
+      Arrays.fill(changed, y * 64, y * 64 + 16, 0xffffffff);
+    }
+    final LumaSignature a = new LumaSignature(4, 4);
+    final LumaSignature b = new LumaSignature(4, 4);
+    a.compute(black, 64, 64);
+    b.compute(changed, 64, 64);
+    assertEquals(1.0f / 16, a.distance(b), 1e-6f);
+    assertEquals(1.0f, a.maxCellDistance(b), 1e-6f);
+  }
+
+  @Test
+  public void invalidSignaturesAreOneApart() {
+    final LumaSignature a = signatureOf(uniform(0xff808080));
+    final LumaSignature b = new LumaSignature(16, 16);
+    assertFalse(b.isValid());
+    assertEquals(1.0f, a.distance(b), 0.0f);
+
+    b.copyFrom(a);
+    assertTrue(b.isValid());
+    assertEquals(0.0f, a.distance(b), 0.0f);
+
+    a.invalidate();
+    assertEquals(1.0f, a.distance(b), 0.0f);
+    assertEquals(1.0f, a.maxCellDistance(b), 0.0f);
+  }
+
+  @Test
+  public void greyYuvCropMatchesItsArgbConversion() {
+    // With neutral chroma the converted pixels are grey, and their luma is the expanded Y sample.
+    final int frameWidth = WIDTH + 20;
+    final int frameHeight = HEIGHT + 10;
+    final byte[] luma = new byte[frameWidth * frameHeight];
+    new Random(16).nextBytes(luma);
+    final byte[] chroma = new byte[(frameWidth + 1) / 2 * ((frameHeight + 1) / 2)];
+    Arrays.fill(chroma, (byte) 128);
+    final YuvFrame frame =
+        new YuvFrame()
+            .setPlanes(
+                ByteBuffer.wrap(luma), ByteBuffer.wrap(chroma), ByteBuffer.wrap(chroma),
+                frameWidth, frameHeight, frameWidth, (frameWidth + 1) / 2, 1)
+            .setCrop(13, 7, WIDTH, HEIGHT);
+    final LumaSignature fromYuv = new LumaSignature(16, 16);
+    fromYuv.compute(frame);
+
+    final int[] argb = new int[frameWidth * frameHeight];
+    ImageUtils.convertYUV420ToARGB8888(
+        luma, chroma, chroma, frameWidth, frameHeight, frameWidth, (frameWidth + 1) / 2, 1, argb);
+    final int[] crop = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; ++y) {
+      System.arraycopy(argb, (7 + y) * frameWidth + 13, crop, y * WIDTH, WIDTH);
+    }
+    assertEquals(0.0f, fromYuv.distance(signatureOf(crop)), 0.0f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsDifferentGrids() {
+    new LumaSignature(16, 16).distance(new LumaSignature(8, 8));
+  }
+
+  private static LumaSignature signatureOf(final int[] frame) {
+    final LumaSignature signature = new LumaSignature(16, 16);
+    signature.compute(frame, WIDTH, HEIGHT);
+    return signature;
+  }
+
+  private static int[] uniform(final int argb) {
+    final int[] frame = new int[WIDTH * HEIGHT];
+    Arrays.fill(frame, argb);
+    return frame;
+  }
+
+  private static int[] gradient(final int width, final int height) {
+    final int[] frame = new int[width * height];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int level = (x + y) * 255 / (width + height - 2);
+        frame[y * width + x] = 0xff000000 | (level << 16) | (level << 8) | level;
+      }
+    }
+    return frame;
+  }
+}
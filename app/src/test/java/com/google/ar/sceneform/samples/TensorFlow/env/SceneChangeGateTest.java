@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SceneChangeGateTest {
+  private static final int GRID_SIZE = 4;
+  private static final int WIDTH = 32;
+  private static final int HEIGHT = 24;
+
+  private static final int[] DARK = grey(100);
+  private static final int[] LIGHT = grey(151);
+
+  // The activity's gate settings, for the camera-like sequences.
+  private static final int SCENE_GRID_SIZE = 16;
+  private static final float SCENE_THRESHOLD = 0.01f;
+  private static final float SCENE_CELL_THRESHOLD = 0.08f;
+  private static final int SCENE_WIDTH = 320;
+  private static final int SCENE_HEIGHT = 240;
+  private static final int OBJECT_SIZE = SCENE_WIDTH / 20;
+  // Per-pixel standard deviation of the simulated sensor noise, in 8-bit levels.
+  private static final double NOISE_SIGMA = 8.0;
+
+  @Test
+  public void stillSceneIsInferredUntilCommitted() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    final LumaSignature signature = gate.newSignature();
+    // No detector has returned results yet, so the same frame keeps passing.
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(gate.shouldInfer(DARK, WIDTH, HEIGHT, signature));
+    }
+    assertEquals(0.0f, gate.getFrameMotion(), 0.0f);
+
+    gate.commit(signature);
+    assertFalse(gate.shouldInfer(DARK, WIDTH, HEIGHT, signature));
+    assertEquals(5, gate.getPassedCount());
+    assertEquals(1, gate.getSkippedCount());
+  }
+
+  @Test
+  public void changeAtThresholdIsInferred() {
+    final float distance = distance(DARK, LIGHT);
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, distance);
+    inferAndCommit(gate, DARK);
+    assertTrue(gate.shouldInfer(LIGHT, WIDTH, HEIGHT, gate.newSignature()));
+  }
+
+  @Test
+  public void changeJustBelowThresholdIsSkipped() {
+    final float distance = distance(DARK, LIGHT);
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, Math.nextUp(distance));
+    inferAndCommit(gate, DARK);
+    assertFalse(gate.shouldInfer(LIGHT, WIDTH, HEIGHT, gate.newSignature()));
+  }
+
+  @Test
+  public void skippedChangeStaysPendingUntilCommitted() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    inferAndCommit(gate, DARK);
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(LIGHT, WIDTH, HEIGHT, signature));
+    // Not committed, e.g. because inference was dropped, so the change is still let through.
+    assertTrue(gate.shouldInfer(LIGHT, WIDTH, HEIGHT, signature));
+    assertEquals(0.0f, gate.getFrameMotion(), 0.0f);
+
+    gate.commit(signature);
+    assertFalse(gate.shouldInfer(LIGHT, WIDTH, HEIGHT, signature));
+  }
+
+  @Test
+  public void resetLetsNextFrameThrough() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    inferAndCommit(gate, DARK);
+    assertFalse(gate.shouldInfer(DARK, WIDTH, HEIGHT, gate.newSignature()));
+
+    gate.reset();
+    inferAndCommit(gate, DARK);
+    assertFalse(gate.shouldInfer(DARK, WIDTH, HEIGHT, gate.newSignature()));
+  }
+
+  @Test
+  public void frameMotionComparesConsecutiveFrames() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    final LumaSignature signature = gate.newSignature();
+    assertEquals(1.0f, gate.getFrameMotion(), 0.0f);
+    gate.shouldInfer(DARK, WIDTH, HEIGHT, signature);
+    assertEquals(1.0f, gate.getFrameMotion(), 0.0f);
+    gate.shouldInfer(LIGHT, WIDTH, HEIGHT, signature);
+    assertEquals(distance(DARK, LIGHT), gate.getFrameMotion(), 0.0f);
+  }
+
+  @Test
+  public void throttledFramesAreCountedApart() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(DARK, WIDTH, HEIGHT, signature));
+    gate.countThrottled();
+    assertTrue(gate.shouldInfer(DARK, WIDTH, HEIGHT, signature));
+    gate.commit(signature);
+    assertFalse(gate.shouldInfer(DARK, WIDTH, HEIGHT, signature));
+
+    assertEquals(1, gate.getPassedCount());
+    assertEquals(1, gate.getSkippedCount());
+    assertEquals(1, gate.getThrottledCount());
+    assertEquals(0.5f, gate.getSkipRatio(), 0.0f);
+  }
+
+  @Test
+  public void sensorNoiseIsSkipped() {
+    final SceneChangeGate gate = sceneGate();
+    final Random random = new Random(22);
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(scene(0, -1, 0, random), SCENE_WIDTH, SCENE_HEIGHT, signature));
+    gate.commit(signature);
+
+    for (int i = 0; i < 100; ++i) {
+      final int[] frame = scene(0, -1, NOISE_SIGMA, random);
+      assertFalse("frame " + i, gate.shouldInfer(frame, SCENE_WIDTH, SCENE_HEIGHT, signature));
+    }
+    assertEquals(1.0f, gate.getSkipRatio(), 0.01f);
+  }
+
+  @Test
+  public void panIsInferred() {
+    final SceneChangeGate gate = sceneGate();
+    final Random random = new Random(22);
+    final LumaSignature signature = gate.newSignature();
+    // Two pixels a frame, i.e. a slow turn of the camera, over noise.
+    for (int i = 0; i < 30; ++i) {
+      final int[] frame = scene(2 * i, -1, NOISE_SIGMA, random);
+      assertTrue("frame " + i, gate.shouldInfer(frame, SCENE_WIDTH, SCENE_HEIGHT, signature));
+      gate.commit(signature);
+    }
+  }
+
+  @Test
+  public void smallMovingObjectIsInferred() {
+    final SceneChangeGate gate = sceneGate();
+    final Random random = new Random(22);
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(scene(0, -1, 0, random), SCENE_WIDTH, SCENE_HEIGHT, signature));
+    gate.commit(signature);
+
+    // An object a twentieth of the frame wide appears, then crosses the still background four
+    // pixels a frame. Only frames that were inferred are committed, as the activity does.
+    int inferredX = -1;
+    for (int x = 0; x + OBJECT_SIZE <= SCENE_WIDTH; x += 4) {
+      final int[] frame = scene(0, x, NOISE_SIGMA, random);
+      final boolean inferred = gate.shouldInfer(frame, SCENE_WIDTH, SCENE_HEIGHT, signature);
+      if (inferredX < 0 || x - inferredX >= OBJECT_SIZE) {
+        // Nothing was inferred since the object appeared, or it has moved clear of where it was.
+        assertTrue("object at " + x, inferred);
+      }
+      if (inferred) {
+        gate.commit(signature);
+        inferredX = x;
+      }
+    }
+  }
+
+  @Test
+  public void yuvFramesAreGatedOnTheirCrop() {
+    final SceneChangeGate gate = new SceneChangeGate(GRID_SIZE, 0.1f);
+    final byte[] luma = new byte[WIDTH * HEIGHT];
+    Arrays.fill(luma, (byte) 100);
+    final byte[] chroma = new byte[WIDTH / 2 * HEIGHT / 2];
+    Arrays.fill(chroma, (byte) 128);
+    final YuvFrame frame =
+        new YuvFrame()
+            .setPlanes(
+                ByteBuffer.wrap(luma), ByteBuffer.wrap(chroma), ByteBuffer.wrap(chroma),
+                WIDTH, HEIGHT, WIDTH, WIDTH / 2, 1)
+            .setCrop(0, 0, WIDTH / 2, HEIGHT);
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(frame, signature));
+    gate.commit(signature);
+    assertFalse(gate.shouldInfer(frame, signature));
+
+    // Outside of the crop, a change goes unnoticed.
+    for (int y = 0; y < HEIGHT; ++y) {
+      Arrays.fill(luma, y * WIDTH + WIDTH / 2, (y + 1) * WIDTH, (byte) 200);
+    }
+    assertFalse(gate.shouldInfer(frame, signature));
+    for (int y = 0; y < HEIGHT; ++y) {
+      Arrays.fill(luma, y * WIDTH, y * WIDTH + WIDTH / 2, (byte) 200);
+    }
+    assertTrue(gate.shouldInfer(frame, signature));
+  }
+
+  private static SceneChangeGate sceneGate() {
+    return new SceneChangeGate(SCENE_GRID_SIZE, SCENE_THRESHOLD, SCENE_CELL_THRESHOLD);
+  }
+
+  /**
+   * Returns a textured frame panned {@code panX} pixels to the right, with a dark square object at
+   * {@code objectX} unless it is negative, and Gaussian noise of the given deviation per pixel.
+   */
+  private static int[] scene(
+      final int panX, final int objectX, final double noiseSigma, final Random random) {
+    final int[] frame = new int[SCENE_WIDTH * SCENE_HEIGHT];
+    final int objectY = (SCENE_HEIGHT - OBJECT_SIZE) / 2;
+    for (int y = 0; y < SCENE_HEIGHT; ++y) {
+      for (int x = 0; x < SCENE_WIDTH; ++x) {
+        final boolean object =
+            objectX >= 0
+                && x >= objectX
+                && x < objectX + OBJECT_SIZE
+                && y >= objectY
+                && y < objectY + OBJECT_SIZE;
+        final double level =
+            (object ? 20 : texture(x + panX, y)) + random.nextGaussian() * noiseSigma;
+        final int clamped = Math.max(0, Math.min(255, (int) Math.round(level)));
+        frame[y * SCENE_WIDTH + x] = 0xff000000 | (clamped << 16) | (clamped << 8) | clamped;
+      }
+    }
+    return frame;
+  }
+
+  /** Smooth luma detail at several scales, like a cluttered room. */
+  private static double texture(final int x, final int y) {
+    return 128
+        + 50 * Math.sin(x / 11.0)
+        + 40 * Math.cos(y / 7.0 + x / 29.0)
+        + 20 * Math.sin((x + y) / 5.0);
+  }
+
+  private static void inferAndCommit(final SceneChangeGate gate, final int[] frame) {
+    final LumaSignature signature = gate.newSignature();
+    assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT, signature));
+    gate.commit(signature);
+  }
+
+  private static float distance(final int[] a, final int[] b) {
+    final LumaSignature signatureA = new LumaSignature(GRID_SIZE, GRID_SIZE);
+    final LumaSignature signatureB = new LumaSignature(GRID_SIZE, GRID_SIZE);
+    signatureA.compute(a, WIDTH, HEIGHT);
+    signatureB.compute(b, WIDTH, HEIGHT);
+    return signatureA.distance(signatureB);
+  }
+
+  private static int[] grey(final int level) {
+    final int[] frame = new int[WIDTH * HEIGHT];
+    Arrays.fill(frame, 0xff000000 | (level << 16) | (level << 8) | level);
+    return frame;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopKSelectorTest {
+  @Test
+  public void selectsBestFirst() {
+    final TopKSelector selector = new TopKSelector(3);
+    final float[] scores = {0.2f, 0.9f, 0.5f, 0.7f, 0.1f};
+    for (int i = 0; i < scores.length; ++i) {
+      selector.offer(scores[i], i);
+    }
+
+    final int[] indices = new int[3];
+    final float[] selected = new float[3];
+    assertEquals(3, selector.drain(indices, selected));
+    assertArrayEquals(new int[] {1, 3, 2}, indices);
+    assertArrayEquals(new float[] {0.9f, 0.7f, 0.5f}, selected, 0.0f);
+  }
+
+  @Test
+  public void tiesFavourLowerIndexWhateverTheOfferOrder() {
+    final TopKSelector selector = new TopKSelector(3);
+    final int[] indices = new int[3];
+    for (final int[] offerOrder : new int[][] {{0, 1, 2, 3, 4}, {4, 3, 2, 1, 0}, {2, 4, 0, 3, 1}}) {
+      for (final int index : offerOrder) {
+        selector.offer(0.5f, index);
+      }
+      assertEquals(3, selector.drain(indices, null));
+      assertArrayEquals(new int[] {0, 1, 2}, indices);
+    }
+  }
+
+  @Test
+  public void keepsEverythingWhenKExceedsCandidates() {
+    final TopKSelector selector = new TopKSelector(10);
+    selector.offer(0.3f, 7);
+    selector.offer(0.8f, 2);
+    selector.offer(0.3f, 4);
+    assertEquals(3, selector.size());
+
+    final int[] indices = new int[10];
+    final float[] scores = new float[10];
+    assertEquals(3, selector.drain(indices, scores));
+    assertArrayEquals(new int[] {2, 4, 7}, Arrays.copyOf(indices, 3));
+    assertArrayEquals(new float[] {0.8f, 0.3f, 0.3f}, Arrays.copyOf(scores, 3), 0.0f);
+  }
+
+  @Test
+  public void drainsNothingWhenEmptyAndClearsAfterDraining() {
+    final TopKSelector selector = new TopKSelector(2);
+    final int[] indices = new int[2];
+    assertEquals(0, selector.drain(indices, null));
+
+    selector.offer(1.0f, 0);
+    selector.drain(indices, null);
+    assertEquals(0, selector.size());
+    selector.offer(0.5f, 1);
+    assertEquals(1, selector.drain(indices, null));
+    assertEquals(1, indices[0]);
+  }
+
+  @Test
+  public void matchesFullSort() {
+    final Random random = new Random(15);
+    for (int trial = 0; trial < 200; ++trial) {
+      final int n = random.nextInt(60);
+      final int k = 1 + random.nextInt(20);
+      final float[] scores = new float[n];
+      final List<Integer> offerOrder = new ArrayList<Integer>();
+      for (int i = 0; i < n; ++i) {
+        // Coarse scores, so that there are plenty of ties.
+        scores[i] = random.nextInt(8) / 8.0f;
+        offerOrder.add(i);
+      }
+      Collections.shuffle(offerOrder, random);
+
+      final TopKSelector selector = new TopKSelector(k);
+      for (final int i : offerOrder) {
+        selector.offer(scores[i], i);
+      }
+      final int[] indices = new int[k];
+      final int count = selector.drain(indices, null);
+
+      final int[] expected = sortedIndices(scores);
+      assertEquals(Math.min(k, n), count);
+      assertArrayEquals(Arrays.copyOf(expected, count), Arrays.copyOf(indices, count));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveK() {
+    new TopKSelector(0);
+  }
+
+  /** Returns all indices by decreasing score, lower index first among equal scores. */
+  private static int[] sortedIndices(final float[] scores) {
+    final Integer[] order = new Integer[scores.length];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(
+        order,
+        (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : a - b);
+    final int[] result = new int[order.length];
+    for (int i = 0; i < order.length; ++i) {
+      result[i] = order[i];
+    }
+    return result;
+  }
+}
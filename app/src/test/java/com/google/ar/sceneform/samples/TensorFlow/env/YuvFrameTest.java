@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/** Checks the crop and rotation bookkeeping of {@link YuvFrame}. */
+public class YuvFrameTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  @Test
+  public void wideAspectCropsRows() {
+    final YuvFrame frame = frame().cropToAspect(1920, 1080);
+    assertCrop(frame, 0, 60, 640, 360);
+  }
+
+  @Test
+  public void squareAspectCropsColumns() {
+    final YuvFrame frame = frame().cropToAspect(1, 1);
+    assertCrop(frame, 80, 0, 480, 480);
+  }
+
+  @Test
+  public void rotatedFrameCropsToUprightAspect() {
+    // A portrait view filled by a landscape camera image turned a quarter.
+    final YuvFrame frame = frame().setRotation(90).cropToAspect(1080, 2160);
+    assertCrop(frame, 0, 80, 640, 320);
+    frame.setRotation(270).cropToAspect(1080, 1920);
+    assertCrop(frame, 0, 60, 640, 360);
+  }
+
+  @Test
+  public void settingPlanesResetsCropAndKeepsRotation() {
+    final YuvFrame frame = frame().setRotation(180).setCrop(10, 20, 30, 40);
+    frame.setPlanes(
+        ByteBuffer.allocate(1), ByteBuffer.allocate(1), ByteBuffer.allocate(1), 1, 1, 1, 1, 1);
+    assertCrop(frame, 0, 0, 1, 1);
+    assertEquals(180, frame.getRotation());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCropOutsideOfFrame() {
+    frame().setCrop(1, 0, WIDTH, HEIGHT);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyCrop() {
+    frame().setCrop(0, 0, 0, HEIGHT);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOddRotation() {
+    frame().setRotation(45);
+  }
+
+  private static YuvFrame frame() {
+    return new YuvFrame()
+        .setPlanes(
+            ByteBuffer.allocate(WIDTH * HEIGHT),
+            ByteBuffer.allocate(WIDTH * HEIGHT / 4),
+            ByteBuffer.allocate(WIDTH * HEIGHT / 4),
+            WIDTH,
+            HEIGHT,
+            WIDTH,
+            WIDTH / 2,
+            1);
+  }
+
+  private static void assertCrop(
+      final YuvFrame frame, final int left, final int top, final int width, final int height) {
+    assertArrayEquals(
+        new int[] {left, top, width, height},
+        new int[] {frame.cropLeft, frame.cropTop, frame.cropWidth, frame.cropHeight});
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.TensorFlow.env;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks {@link YuvToArgbConverter#convertRows} against the original per-pixel conversion for
+ * every (Y, U, V) triple, and that it reads the right samples of padded, planar and interleaved
+ * frames of odd sizes, writing only the requested rows.
+ */
+public class YuvToArgbConverterTest {
+  // Pixels outside the converted rows must keep this value.
+  private static final int UNTOUCHED = 0x12345678;
+
+  private Random random;
+
+  @Before
+  public void setUp() {
+    random = new Random(24);
+  }
+
+  @Test
+  public void everyYuvTripleMatchesReference() {
+    // One frame per U value. Image row pair j has V = j and Y = 0..255 across, and every chroma
+    // sample of the pair is the same, so each pixel is converted from its own (Y, U, V).
+    final int width = 256;
+    final int height = 512;
+    final int chromaWidth = width / 2;
+    final byte[] yData = new byte[width * height];
+    for (int i = 0; i < yData.length; ++i) {
+      yData[i] = (byte) i;
+    }
+    final byte[] uData = new byte[chromaWidth * height / 2];
+    final byte[] vData = new byte[chromaWidth * height / 2];
+    for (int v = 0; v < 256; ++v) {
+      Arrays.fill(vData, v * chromaWidth, (v + 1) * chromaWidth, (byte) v);
+    }
+    final int[] out = new int[width * height];
+
+    for (int u = 0; u < 256; ++u) {
+      Arrays.fill(uData, (byte) u);
+      YuvToArgbConverter.convertRows(
+          yData, 0, width, uData, 0, vData, 0, chromaWidth, 1, width, 0, height, out);
+      for (int i = 0; i < out.length; ++i) {
+        final int y = i % width;
+        final int v = i / width / 2;
+        if (out[i] != referenceYuvToArgb(y, u, v)) {
+          assertEquals("Y=" + y + " U=" + u + " V=" + v, referenceYuvToArgb(y, u, v), out[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void interleavedMatchesReference() {
+    for (final int[] size : sizes()) {
+      checkFullFrame(new Frame(random, size[0], size[1], 2));
+    }
+  }
+
+  @Test
+  public void planarMatchesReference() {
+    for (final int[] size : sizes()) {
+      checkFullFrame(new Frame(random, size[0], size[1], 1));
+    }
+  }
+
+  @Test
+  public void rowRangesMatchReference() {
+    for (int trial = 0; trial < 100; ++trial) {
+      final Frame frame =
+          new Frame(random, 1 + random.nextInt(99), 1 + random.nextInt(400), 1 + random.nextInt(2));
+      final int rowStart = random.nextInt(frame.height);
+      final int rowEnd = rowStart + 1 + random.nextInt(frame.height - rowStart);
+      check(frame, rowStart, rowEnd);
+    }
+  }
+
+  /** The original per-pixel conversion of one (Y, U, V) sample, kept as the reference. */
+  static int referenceYuvToArgb(int y, int u, int v) {
+    // Adjust and check YUV values
+    y = (y - 16) < 0 ? 0 : (y - 16);
+    u -= 128;
+    v -= 128;
+
+    int y1192 = 1192 * y;
+    int r = (y1192 + 1634 * v);
+    int g = (y1192 - 833 * v - 400 * u);
+    int b = (y1192 + 2066 * u);
+
+    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
+    final int max = ImageUtils.kMaxChannelValue;
+    r = r > max ? max : (r < 0 ? 0 : r);
+    g = g > max ? max : (g < 0 ? 0 : g);
+    b = b > max ? max : (b < 0 ? 0 : b);
+
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  private static int[][] sizes() {
+    return new int[][] {
+      {1, 1}, {1, 2}, {2, 1}, {3, 3}, {7, 5}, {63, 65}, {64, 64}, {101, 333}, {640, 481}
+    };
+  }
+
+  private static void checkFullFrame(final Frame frame) {
+    check(frame, 0, frame.height);
+  }
+
+  private static void check(final Frame frame, final int rowStart, final int rowEnd) {
+    final int[] out = new int[frame.width * frame.height];
+    Arrays.fill(out, UNTOUCHED);
+
+    YuvToArgbConverter.convertRows(
+        frame.yData, frame.yOffset, frame.yRowStride, frame.uData, frame.uOffset, frame.vData,
+        frame.vOffset, frame.uvRowStride, frame.uvPixelStride, frame.width, rowStart, rowEnd,
+        out);
+
+    for (int i = 0; i < out.length; ++i) {
+      final int row = i / frame.width;
+      final int column = i % frame.width;
+      if (row < rowStart || row >= rowEnd) {
+        assertEquals("pixel " + i, UNTOUCHED, out[i]);
+        continue;
+      }
+      final int uvIndex = (row >> 1) * frame.uvRowStride + (column >> 1) * frame.uvPixelStride;
+      final int expected =
+          referenceYuvToArgb(
+              0xff & frame.yData[frame.yOffset + row * frame.yRowStride + column],
+              0xff & frame.uData[frame.uOffset + uvIndex],
+              0xff & frame.vData[frame.vOffset + uvIndex]);
+      if (out[i] != expected) {
+        assertEquals("pixel " + i, expected, out[i]);
+      }
+    }
+  }
+
+  /**
+   * A random frame with padded rows. Interleaved chroma shares one buffer with the luma plane in
+   * NV21 order, planar chroma has a buffer per plane.
+   */
+  private static final class Frame {
+    final int width;
+    final int height;
+    final int uvPixelStride;
+    final byte[] yData;
+    final int yOffset;
+    final int yRowStride;
+    final byte[] uData;
+    final int uOffset;
+    final byte[] vData;
+    final int vOffset;
+    final int uvRowStride;
+
+    Frame(final Random random, final int width, final int height, final int uvPixelStride) {
+      this.width = width;
+      this.height = height;
+      this.uvPixelStride = uvPixelStride;
+      final int chromaWidth = (width + 1) / 2;
+      final int chromaHeight = (height + 1) / 2;
+      yRowStride = width + random.nextInt(8);
+      uvRowStride = chromaWidth * uvPixelStride + random.nextInt(8);
+      final int ySize = yRowStride * height;
+      final int uvSize = uvRowStride * chromaHeight;
+
+      if (uvPixelStride == 2) {
+        yOffset = random.nextInt(4);
+        yData = randomBytes(random, yOffset + ySize + uvSize);
+        uData = yData;
+        vData = yData;
+        vOffset = yOffset + ySize;
+        uOffset = vOffset + 1;
+      } else {
+        yOffset = 0;
+        yData = randomBytes(random, ySize);
+        uOffset = random.nextInt(4);
+        vOffset = random.nextInt(4);
+        uData = randomBytes(random, uOffset + uvSize);
+        vData = randomBytes(random, vOffset + uvSize);
+      }
+    }
+
+    private static byte[] randomBytes(final Random random, final int length) {
+      final byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      return bytes;
+    }
+  }
+}
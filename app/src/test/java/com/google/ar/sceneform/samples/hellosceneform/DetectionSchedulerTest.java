@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google LLC. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.sceneform.samples.hellosceneform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives {@link DetectionScheduler} with a fake clock. The intervals are the activity's, the CPU
+ * budget is one that keeps the expected intervals exact.
+ */
+public class DetectionSchedulerTest {
+    private static final long SAMPLE_INTERVAL_MS = 100;
+    private static final long MIN_INTERVAL_MS = 50;
+    private static final long MAX_INTERVAL_MS = 500;
+    private static final float CPU_BUDGET = 0.5f;
+
+    private FakeClock clock;
+    private DetectionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock(10000);
+        scheduler =
+                new DetectionScheduler(
+                        SAMPLE_INTERVAL_MS, MIN_INTERVAL_MS, MAX_INTERVAL_MS, CPU_BUDGET, 1, clock);
+    }
+
+    @Test
+    public void samplesAtFixedInterval() throws InterruptedException {
+        scheduler.awaitSampleSlot();
+        final long first = clock.now;
+        for (int i = 1; i <= 5; ++i) {
+            clock.now += 30; // Capturing and gating the frame.
+            scheduler.awaitSampleSlot();
+            assertEquals(first + i * SAMPLE_INTERVAL_MS, clock.now);
+        }
+        // Slow inference does not stretch sampling.
+        scheduler.onDetectionFinished(2000);
+        clock.now += 30;
+        scheduler.awaitSampleSlot();
+        assertEquals(first + 6 * SAMPLE_INTERVAL_MS, clock.now);
+    }
+
+    @Test
+    public void lateCaptureIsNotDelayed() throws InterruptedException {
+        scheduler.awaitSampleSlot();
+        clock.sleeps.clear();
+        clock.now += SAMPLE_INTERVAL_MS + 40;
+        scheduler.awaitSampleSlot();
+        assertTrue(clock.sleeps.isEmpty());
+    }
+
+    @Test
+    public void fastInferenceOfMovingSceneRunsAtMinInterval() {
+        scheduler.onFrameMotion(1.0f);
+        scheduler.onDetectionFinished(20);
+        assertEquals(MIN_INTERVAL_MS, scheduler.getIntervalMs());
+        assertEquals(MIN_INTERVAL_MS, detectionPeriod());
+    }
+
+    @Test
+    public void stillSceneRunsAtMaxInterval() {
+        scheduler.onFrameMotion(0.0f);
+        scheduler.onDetectionFinished(20);
+        assertEquals(MAX_INTERVAL_MS, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void throttlesWhileOverBudget() {
+        scheduler.onFrameMotion(1.0f);
+        // 120ms per inference at a 50% budget leaves one inference every 240ms.
+        scheduler.onDetectionFinished(120);
+        assertEquals(240, scheduler.getIntervalMs());
+        assertEquals(240, detectionPeriod());
+
+        // Far over budget, the interval is capped.
+        scheduler.onDetectionFinished(5000);
+        assertEquals(MAX_INTERVAL_MS, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void budgetIsSharedByParallelDetectors() {
+        scheduler =
+                new DetectionScheduler(
+                        SAMPLE_INTERVAL_MS, MIN_INTERVAL_MS, MAX_INTERVAL_MS, CPU_BUDGET, 2, clock);
+        scheduler.onFrameMotion(1.0f);
+        scheduler.onDetectionFinished(120);
+        assertEquals(120, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void recoversWhenLatencyDrops() {
+        scheduler.onFrameMotion(1.0f);
+        scheduler.onDetectionFinished(200);
+        assertEquals(400, scheduler.getIntervalMs());
+
+        long previous = scheduler.getIntervalMs();
+        for (int i = 0; i < 30; ++i) {
+            scheduler.onDetectionFinished(20);
+            final long interval = scheduler.getIntervalMs();
+            assertTrue(interval <= previous);
+            previous = interval;
+        }
+        assertEquals(MIN_INTERVAL_MS, previous);
+        assertEquals(MIN_INTERVAL_MS, detectionPeriod());
+    }
+
+    @Test
+    public void refusedFrameDoesNotRestartInterval() {
+        scheduler.onFrameMotion(1.0f);
+        scheduler.onDetectionFinished(120);
+        assertTrue(scheduler.tryStartDetection());
+        clock.now += 200;
+        assertFalse(scheduler.tryStartDetection());
+        clock.now += 40;
+        assertTrue(scheduler.tryStartDetection());
+    }
+
+    /**
+     * Offers a changed frame every millisecond and returns the time between the last two it let
+     * through.
+     */
+    private long detectionPeriod() {
+        final List<Long> starts = new ArrayList<>();
+        for (int i = 0; i < 2000 && starts.size() < 3; ++i) {
+            if (scheduler.tryStartDetection()) {
+                starts.add(clock.now);
+            }
+            clock.now += 1;
+        }
+        assertEquals(3, starts.size());
+        return starts.get(2) - starts.get(1);
+    }
+
+    private static final class FakeClock implements DetectionScheduler.Clock {
+        final List<Long> sleeps = new ArrayList<>();
+        long now;
+
+        FakeClock(final long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void sleep(final long ms) {
+            sleeps.add(ms);
+            now += ms;
+        }
+    }
+}